@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.text.Document;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A parallel scan must give the same positions as a sequential scan, whatever
+ * the text around the nominal chunk boundaries.
+ */
+public class ParallelScanTest {
+
+	private static final String[] CODES = { "\u001b[m", "\u001b[1;31m", "\u001b[4m", "\u001b[42m", "\u001b[39m",
+			"\u001b[38;5;200m", "\u001b[22;7m", "\u001b[2J", "\u001b[0;33m" };
+
+	@Test
+	public void testRandomText() {
+		final Random random = new Random(1);
+		final StringBuilder builder = new StringBuilder();
+		while (builder.length() < 3 * ParallelScan.THRESHOLD) {
+			appendLine(builder, random);
+		}
+		assertSameScan(builder.toString());
+	}
+
+	@Test
+	public void testSequencesOnChunkBoundaries() {
+		final Random random = new Random(2);
+		final StringBuilder builder = new StringBuilder();
+		// the chunks are cut after the first line delimiter following their nominal
+		// size, put an escape sequence across each nominal boundary
+		int start = 0;
+		while (builder.length() < 2 * ParallelScan.THRESHOLD) {
+			final int boundary = start + ParallelScan.CHUNK_SIZE;
+			while (builder.length() < boundary - 100) {
+				appendLine(builder, random);
+			}
+			while (builder.length() < boundary - 3) {
+				builder.append('x');
+			}
+			builder.append("\u001b[1;32mgreen\n");
+			start = builder.length();
+		}
+		builder.append("\u001b[0mlast line\n");
+		assertSameScan(builder.toString());
+	}
+
+	@Test
+	public void testUnterminatedSequenceAtEnd() {
+		final Random random = new Random(3);
+		final StringBuilder builder = new StringBuilder();
+		while (builder.length() < 2 * ParallelScan.THRESHOLD) {
+			appendLine(builder, random);
+		}
+		assertSameScan(builder.append("\u001b[1;3").toString());
+	}
+
+	private static void appendLine(StringBuilder builder, Random random) {
+		for (int i = random.nextInt(8); i > 0; i--) {
+			if (random.nextInt(3) == 0) {
+				builder.append(CODES[random.nextInt(CODES.length)]);
+			}
+			for (int j = random.nextInt(30); j > 0; j--) {
+				builder.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		builder.append('\n');
+	}
+
+	private static void assertSameScan(String text) {
+		for (final boolean lazy : new boolean[] { false, true }) {
+			final DocumentScanner sequential = new DocumentScanner(StyleAttribute.DEFAULT, lazy);
+			sequential.update(0, text);
+
+			final DocumentScanner parallel = new DocumentScanner(StyleAttribute.DEFAULT, lazy);
+			final DocumentText content = new DocumentText(new Document(text), text.length(), () -> 0);
+			assertTrue(
+					ParallelScan.scan(content, parallel, new NullProgressMonitor(), () -> false, new AtomicLong()));
+
+			assertSame(sequential.getAttributes(), parallel.getAttributes());
+			assertEquals(sequential.getEnd(), parallel.getEnd());
+			if (!lazy) {
+				// the checkpoints depend on where the chunks start
+				assertSamePositions(sequential.snapshot(), parallel.snapshot());
+			}
+		}
+	}
+
+	private static void assertSamePositions(PositionStore expected, PositionStore actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int index = 0; index < expected.size(); index++) {
+			assertEquals(expected.getOffset(index), actual.getOffset(index));
+			assertEquals(expected.getLength(index), actual.getLength(index));
+			assertSame(expected.getAttribute(index), actual.getAttribute(index));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.prettyconsole.utils.SgrParameters;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The snapshots of a store must never see the changes made to the store after
+ * them.
+ */
+public class PositionStoreTest {
+
+	private static final SgrParameters PARAMETERS = new SgrParameters();
+	private static final StyleAttribute RED = StyleAttribute.DEFAULT.apply("\u001b[31m", PARAMETERS);
+	private static final StyleAttribute BOLD = StyleAttribute.DEFAULT.apply("\u001b[1m", PARAMETERS);
+
+	@Test
+	public void testSnapshotAfterAdd() {
+		final PositionStore store = fill(new PositionStore(), 0, 10);
+		final PositionStore snapshot = store.snapshot();
+		final List<Object> expected = runs(snapshot);
+
+		// extend the last run, then add enough runs to grow the arrays
+		store.add(snapshot.getEnd(snapshot.size() - 1), 5, snapshot.getAttribute(snapshot.size() - 1));
+		fill(store, store.getEnd(store.size() - 1), 200);
+		assertEquals(expected, runs(snapshot));
+	}
+
+	@Test
+	public void testSnapshotAfterRemoveText() {
+		final PositionStore store = fill(new PositionStore(), 0, 100);
+		final PositionStore snapshot = store.snapshot();
+		final List<Object> expected = runs(snapshot);
+
+		store.removeText(store.getOffset(40) + 1);
+		fill(store, store.getEnd(store.size() - 1), 100);
+		assertEquals(expected, runs(snapshot));
+
+		// remove all the runs: the arrays are replaced, not cleared
+		store.removeText(store.getEnd(store.size() - 1));
+		fill(store, 0, 100);
+		assertEquals(expected, runs(snapshot));
+	}
+
+	@Test
+	public void testSnapshotAfterRebase() {
+		final PositionStore store = fill(new PositionStore(), 0, 100);
+		final PositionStore snapshot = store.snapshot();
+		final List<Object> expected = runs(snapshot);
+
+		final int removed = snapshot.getOffset(30) + 2;
+		final PositionStore rebased = snapshot.rebase(removed);
+		assertEquals(expected, runs(snapshot));
+
+		// the rebased view sees the same runs, shifted (the first one cut)
+		store.removeText(removed);
+		assertEquals(runs(store.snapshot()), runs(rebased));
+		assertEquals(0, rebased.getOffset(0));
+		assertEquals(removed, rebased.getBase());
+		fill(store, store.getEnd(store.size() - 1), 100);
+		assertEquals(expected, runs(snapshot));
+	}
+
+	@Test
+	public void testSnapshotAfterRemoveTextKeepingLast() {
+		final PositionStore store = fill(new PositionStore(), 0, 100);
+		final PositionStore snapshot = store.snapshot();
+		final List<Object> expected = runs(snapshot);
+
+		store.removeTextKeepingLast(store.getOffset(50) + 3);
+		fill(store, store.getEnd(store.size() - 1), 100);
+		assertEquals(expected, runs(snapshot));
+	}
+
+	// add runs separated by escape sequences
+	private static PositionStore fill(PositionStore store, int offset, int count) {
+		for (int i = 0; i < count; i++) {
+			store.add(offset, 5, PositionStore.ESCAPE_CODE);
+			store.add(offset + 5, 10 + i % 7, i % 2 == 0 ? RED : BOLD);
+			offset += 15 + i % 7;
+		}
+		return store;
+	}
+
+	private static List<Object> runs(PositionStore store) {
+		final List<Object> runs = new ArrayList<>();
+		runs.add(store.getBase());
+		for (int index = 0; index < store.size(); index++) {
+			runs.add(store.getOffset(index));
+			runs.add(store.getLength(index));
+			runs.add(store.getAttribute(index));
+		}
+		return runs;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.prettyconsole.utils.SgrParameters;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The text written through stripping streams must lose its escape sequences and
+ * nothing else, even an incomplete sequence ending the output.
+ */
+public class StrippedStylesTest {
+
+	private static final StyleAttribute RED = StyleAttribute.DEFAULT.apply("\u001b[31m", new SgrParameters());
+
+	@Test
+	public void testStrip() {
+		final StrippedStyles styles = StrippedStyles.register(new Document());
+		assertEquals("plain red", styles.strip("plain \u001b[31mred\u001b[0m"));
+		assertEquals("", styles.stripPending());
+		assertEquals(9, styles.getEnd());
+
+		final PositionStore positions = styles.snapshot();
+		assertEquals(1, positions.size());
+		assertEquals(6, positions.getOffset(0));
+		assertEquals(3, positions.getLength(0));
+		assertSame(RED, positions.getAttribute(0));
+	}
+
+	@Test
+	public void testSequenceAcrossChunks() {
+		final StrippedStyles styles = StrippedStyles.register(new Document());
+		assertEquals("a", styles.strip("a\u001b["));
+		assertEquals("b", styles.strip("31mb"));
+		assertEquals("", styles.stripPending());
+		assertSame(RED, styles.snapshot().getAttribute(0));
+	}
+
+	@Test
+	public void testPendingEscape() {
+		final StrippedStyles styles = StrippedStyles.register(new Document());
+		assertEquals("end", styles.strip("end\u001b"));
+		assertEquals("\u001b", styles.stripPending());
+		assertEquals(4, styles.getEnd());
+		// written once
+		assertEquals("", styles.stripPending());
+	}
+
+	@Test
+	public void testPendingSequence() {
+		final StrippedStyles styles = StrippedStyles.register(new Document());
+		assertEquals("red ", styles.strip("\u001b[31mred \u001b["));
+		assertEquals("", styles.strip("1;"));
+		assertEquals("\u001b[1;", styles.stripPending());
+		assertEquals(8, styles.getEnd());
+
+		// the chars are styled like the text before them
+		final PositionStore positions = styles.snapshot();
+		assertEquals(0, positions.getOffset(0));
+		assertEquals(8, positions.getEnd(positions.size() - 1));
+
+		// the next text starts a new sequence
+		assertEquals("x", styles.strip("\u001b[mx"));
+		assertEquals(9, styles.getEnd());
+		assertEquals(positions.size(), styles.snapshot().size());
+	}
+}
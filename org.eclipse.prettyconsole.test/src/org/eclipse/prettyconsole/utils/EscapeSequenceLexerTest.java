@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.prettyconsole.PrettyConsoleUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The lexer must find the same escape sequences as
+ * {@link PrettyConsoleUtils#ESCAPE_SEQUENCE_REGEX_TXT}, however the text is cut
+ * in chunks.
+ */
+public class EscapeSequenceLexerTest {
+
+	// the complete sequences matched by ESCAPE_SEQUENCE_REGEX_TXT
+	private static final Pattern COMPLETE = Pattern.compile("\u001b\\[[\\d;]*[A-HJKSTfimnsu]");
+
+	private static final String[] PIECES = { "\u001b[m", "\u001b[0m", "\u001b[1;31m", "\u001b[38;5;200m",
+			"\u001b[38;2;1;2;3m", "\u001b[2J", "\u001b[;H", "\u001b[12", "\u001b[", "\u001b", "\u001b\u001b[4m",
+			"\u001bx", "\u001b[3x", "\u001b[9;", "[31m", ";", "5", "m", "\n", "plain text", " " };
+
+	@Test
+	public void testWholeText() {
+		final Random random = new Random(1);
+		for (int round = 0; round < 500; round++) {
+			final String text = randomText(random, 40);
+			assertEquals(expected(text), scan(text), text);
+		}
+	}
+
+	@Test
+	public void testEverySplit() {
+		final Random random = new Random(2);
+		for (int round = 0; round < 200; round++) {
+			final String text = randomText(random, 12);
+			final String expected = expected(text);
+			for (int split = 0; split <= text.length(); split++) {
+				assertEquals(expected, scan(text, split), text + " split at " + split);
+			}
+		}
+	}
+
+	@Test
+	public void testOneCharChunks() {
+		final Random random = new Random(3);
+		for (int round = 0; round < 200; round++) {
+			final String text = randomText(random, 40);
+			final int[] splits = new int[text.length()];
+			for (int i = 0; i < splits.length; i++) {
+				splits[i] = i;
+			}
+			assertEquals(expected(text), scan(text, splits), text);
+		}
+	}
+
+	@Test
+	public void testRunawaySequence() {
+		// an unterminated sequence longer than the maximum is plain text
+		final StringBuilder builder = new StringBuilder("\u001b[");
+		for (int i = 0; i < EscapeSequenceLexer.MAX_SEQUENCE_LENGTH; i++) {
+			builder.append('1');
+		}
+		final String text = builder.append("m\u001b[31m").toString();
+		final int sequence = text.length() - 5;
+		assertEquals("T0+" + sequence + " E" + sequence + "+5:\u001b[31m pending 0", scan(text, 7, 100));
+	}
+
+	private static String randomText(Random random, int pieces) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = random.nextInt(pieces); i >= 0; i--) {
+			builder.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return builder.toString();
+	}
+
+	// the sequences matched by the regular expression and the text between them,
+	// the incomplete sequence at the end is pending
+	private static String expected(String text) {
+		final List<int[]> sequences = new ArrayList<>();
+		final Matcher matcher = PrettyConsoleUtils.ESCAPE_SEQUENCE_REGEX_TXT.matcher(text);
+		int pending = 0;
+		while (matcher.find()) {
+			if (COMPLETE.matcher(matcher.group()).matches()) {
+				sequences.add(new int[] { matcher.start(), matcher.end() });
+			} else {
+				pending = matcher.end() - matcher.start();
+			}
+		}
+
+		final StringBuilder result = new StringBuilder();
+		int start = 0;
+		for (final int[] sequence : sequences) {
+			appendText(result, start, sequence[0]);
+			result.append('E').append(sequence[0]).append('+').append(sequence[1] - sequence[0]).append(':')
+					.append(text, sequence[0], sequence[1]).append(' ');
+			start = sequence[1];
+		}
+		appendText(result, start, text.length() - pending);
+		return result.append("pending ").append(pending).toString();
+	}
+
+	// scan a text cut in chunks at increasing offsets
+	private static String scan(String text, int... splits) {
+		final StringBuilder result = new StringBuilder();
+		final int[] textStart = { -1 };
+		final int[] textEnd = { 0 };
+		final EscapeSequenceLexer lexer = new EscapeSequenceLexer();
+		final EscapeSequenceLexer.Listener listener = new EscapeSequenceLexer.Listener() {
+			@Override
+			public void text(int offset, int length) {
+				// the runs of a text cut by the chunks are merged
+				assertEquals(textEnd[0], offset, "contiguous text");
+				if (textStart[0] < 0) {
+					textStart[0] = offset;
+				}
+				textEnd[0] = offset + length;
+			}
+
+			@Override
+			public void escapeSequence(int offset, int length, CharSequence sequence) {
+				assertEquals(textEnd[0], offset, "contiguous sequence");
+				flushText(result, textStart, textEnd);
+				result.append('E').append(offset).append('+').append(length).append(':').append(sequence)
+						.append(' ');
+				textEnd[0] = offset + length;
+			}
+		};
+		int start = 0;
+		for (final int split : splits) {
+			lexer.scan(text.substring(start, split), start, listener);
+			start = split;
+		}
+		lexer.scan(text.substring(start), start, listener);
+		flushText(result, textStart, textEnd);
+		return result.append("pending ").append(lexer.getPendingLength()).toString();
+	}
+
+	private static void flushText(StringBuilder result, int[] textStart, int[] textEnd) {
+		if (textStart[0] >= 0) {
+			appendText(result, textStart[0], textEnd[0]);
+			textStart[0] = -1;
+		}
+	}
+
+	private static void appendText(StringBuilder result, int start, int end) {
+		if (end > start) {
+			result.append('T').append(start).append('+').append(end - start).append(' ');
+		}
+	}
+}
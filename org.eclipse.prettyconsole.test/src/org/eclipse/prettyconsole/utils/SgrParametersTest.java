@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+public class SgrParametersTest {
+
+	private final SgrParameters parameters = new SgrParameters();
+
+	@Test
+	public void testNoParameter() {
+		// ESC[m is the same as ESC[0m
+		assertParameters("\u001b[m", 0);
+	}
+
+	@Test
+	public void testEmptyParameters() {
+		assertParameters("\u001b[;m", 0, 0);
+		assertParameters("\u001b[1;;4m", 1, 0, 4);
+		assertParameters("\u001b[31;m", 31, 0);
+	}
+
+	@Test
+	public void testMissingParameters() {
+		assertParameters("\u001b[38;5m", 38, 5);
+		assertEquals(SgrParameters.INVALID, parameters.get(2));
+	}
+
+	@Test
+	public void testOverflowingParameter() {
+		assertParameters("\u001b[1;99999999999999999999;4m", 1, SgrParameters.INVALID, 4);
+		assertParameters("\u001b[65535;65536m", 65535, SgrParameters.INVALID);
+	}
+
+	@Test
+	public void testManyParameters() {
+		final StringBuilder sequence = new StringBuilder("\u001b[");
+		final int[] expected = new int[40];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = i + 1;
+			sequence.append(i + 1).append(';');
+		}
+		sequence.setLength(sequence.length() - 1);
+		assertParameters(sequence.append('m').toString(), expected);
+	}
+
+	@Test
+	public void testReusedBuffer() {
+		assertParameters("\u001b[1;2;3;4;5m", 1, 2, 3, 4, 5);
+		assertParameters("\u001b[7m", 7);
+		assertEquals(SgrParameters.INVALID, parameters.get(1));
+	}
+
+	@Test
+	public void testAttributes() {
+		final StyleAttribute red = apply(StyleAttribute.DEFAULT, "\u001b[1;31m");
+		assertNotSame(StyleAttribute.DEFAULT, red);
+
+		// empty parameters reset the attributes
+		assertSame(StyleAttribute.DEFAULT, apply(red, "\u001b[;m"));
+		assertSame(StyleAttribute.DEFAULT, apply(red, "\u001b[m"));
+
+		// a color with missing parameters is ignored
+		assertSame(red, apply(red, "\u001b[38;5m"));
+		assertSame(red, apply(red, "\u001b[48;2;1;2m"));
+		assertSame(red, apply(red, "\u001b[38;5;99999m"));
+
+		// all the parameters are applied, however many
+		final StringBuilder sequence = new StringBuilder("\u001b[");
+		for (int i = 0; i < 40; i++) {
+			sequence.append("1;");
+		}
+		assertSame(red, apply(StyleAttribute.DEFAULT, sequence.append("31m").toString()));
+	}
+
+	private void assertParameters(String sequence, int... expected) {
+		parameters.parse(sequence, 2, sequence.length() - 1);
+		assertEquals(expected.length, parameters.size(), sequence);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], parameters.get(i), sequence);
+		}
+	}
+
+	private StyleAttribute apply(StyleAttribute attribute, String sequence) {
+		return attribute.apply(sequence, parameters);
+	}
+}
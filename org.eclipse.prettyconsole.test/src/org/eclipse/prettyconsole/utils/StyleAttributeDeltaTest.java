@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class StyleAttributeDeltaTest {
+
+	private static final String[] CODES = { "\u001b[m", "\u001b[0m", "\u001b[1m", "\u001b[2m", "\u001b[22m",
+			"\u001b[3m", "\u001b[23m", "\u001b[4m", "\u001b[21m", "\u001b[24m", "\u001b[7m", "\u001b[27m",
+			"\u001b[8m", "\u001b[28m", "\u001b[9m", "\u001b[29m", "\u001b[51m", "\u001b[54m", "\u001b[31m",
+			"\u001b[39m", "\u001b[42m", "\u001b[49m", "\u001b[95m", "\u001b[104m", "\u001b[38;5;200m",
+			"\u001b[48;5;17m", "\u001b[38;2;10;20;30m", "\u001b[48;2;1;2;3m", "\u001b[38;5m", "\u001b[1;4;31;42m",
+			"\u001b[0;3m", "\u001b[2J" };
+
+	private final SgrParameters parameters = new SgrParameters();
+	private final Random random = new Random(5);
+
+	@Test
+	public void testApplyTo() {
+		for (int round = 0; round < 1000; round++) {
+			final List<String> codes = randomCodes();
+			final StyleAttribute start = randomAttribute();
+			assertSame(applyAll(start, codes), delta(codes).applyTo(start), codes.toString());
+		}
+	}
+
+	@Test
+	public void testComposition() {
+		for (int round = 0; round < 1000; round++) {
+			final List<String> first = randomCodes();
+			final List<String> second = randomCodes();
+			final StyleAttribute start = randomAttribute();
+
+			final StyleAttribute.Delta composed = delta(first);
+			composed.apply(delta(second));
+
+			final List<String> all = new ArrayList<>(first);
+			all.addAll(second);
+			assertSame(applyAll(start, all), composed.applyTo(start), all.toString());
+		}
+	}
+
+	@Test
+	public void testAssociativity() {
+		for (int round = 0; round < 1000; round++) {
+			final List<String> a = randomCodes();
+			final List<String> b = randomCodes();
+			final List<String> c = randomCodes();
+
+			// (a b) c
+			final StyleAttribute.Delta left = delta(a);
+			left.apply(delta(b));
+			left.apply(delta(c));
+
+			// a (b c)
+			final StyleAttribute.Delta right = delta(a);
+			final StyleAttribute.Delta tail = delta(b);
+			tail.apply(delta(c));
+			right.apply(tail);
+
+			for (int i = 0; i < 5; i++) {
+				final StyleAttribute start = randomAttribute();
+				assertSame(left.applyTo(start), right.applyTo(start));
+			}
+			assertEquals(left.isAbsolute(), right.isAbsolute());
+		}
+	}
+
+	@Test
+	public void testAbsolute() {
+		// the identity
+		assertSame(StyleAttribute.DEFAULT, new StyleAttribute.Delta().applyTo(StyleAttribute.DEFAULT));
+		assertFalse(new StyleAttribute.Delta().isAbsolute());
+
+		// only a reset makes the result independent of the attribute before
+		assertFalse(delta(Arrays.asList("\u001b[1;31m", "\u001b[42m")).isAbsolute());
+		assertTrue(delta(Arrays.asList("\u001b[1;31m", "\u001b[m")).isAbsolute());
+		assertTrue(delta(Arrays.asList("\u001b[m", "\u001b[1;31m")).isAbsolute());
+		assertTrue(delta(Arrays.asList("\u001b[0;4m", "\u001b[2J")).isAbsolute());
+	}
+
+	private List<String> randomCodes() {
+		final List<String> codes = new ArrayList<>();
+		for (int i = random.nextInt(6); i > 0; i--) {
+			codes.add(CODES[random.nextInt(CODES.length)]);
+		}
+		return codes;
+	}
+
+	private StyleAttribute randomAttribute() {
+		return applyAll(StyleAttribute.DEFAULT, randomCodes());
+	}
+
+	private StyleAttribute applyAll(StyleAttribute attribute, List<String> codes) {
+		for (final String code : codes) {
+			attribute = attribute.apply(code, parameters);
+		}
+		return attribute;
+	}
+
+	private StyleAttribute.Delta delta(List<String> codes) {
+		final StyleAttribute.Delta delta = new StyleAttribute.Delta();
+		for (final String code : codes) {
+			delta.apply(code, parameters);
+		}
+		return delta;
+	}
+}
@@ -10,13 +10,18 @@
  */
 package org.eclipse.prettyconsole;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.eclipse.prettyconsole.participants.StylingWorker;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.ui.console.IConsolePageParticipant;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
@@ -25,7 +30,13 @@ public class PrettyConsoleActivator extends AbstractUIPlugin {
 
 	private static PrettyConsoleActivator plugin;
 	public static final String PLUGIN_ID = "org.eclipse.prettyconsole"; //$NON-NLS-1$
-	private final Map<StyledText, IConsolePageParticipant> viewers = new HashMap<>();
+	// the viewers and their participant, the viewers of a participant (only
+	// modified by compute() so the sets are never seen while modified)
+	private final ConcurrentMap<StyledText, IConsolePageParticipant> viewers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<IConsolePageParticipant, Set<StyledText>> participants = new ConcurrentHashMap<>();
+	// forget the disposed viewers even if their participant is not disposed yet
+	private final Listener disposeListener = event -> removeViewer((StyledText) event.widget);
+	private final AtomicBoolean redrawScheduled = new AtomicBoolean();
 
 	@Override
 	public void start(BundleContext context) throws Exception {
@@ -35,6 +46,7 @@ public class PrettyConsoleActivator extends AbstractUIPlugin {
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		StylingWorker.shutdown();
 		plugin = null;
 		super.stop(context);
 	}
@@ -43,32 +55,124 @@ public class PrettyConsoleActivator extends AbstractUIPlugin {
 		return plugin;
 	}
 
+	/**
+	 * Register a viewer, it is unregistered when disposed (may be called from any
+	 * thread)
+	 *
+	 * @param viewer      the viewer
+	 * @param participant the participant of the viewer page
+	 */
 	public void addViewer(StyledText viewer, IConsolePageParticipant participant) {
 		viewers.put(viewer, participant);
+		participants.compute(participant, (key, set) -> {
+			final Set<StyledText> result = set != null ? set : new HashSet<>();
+			result.add(viewer);
+			return result;
+		});
+
+		final Display display = viewer.getDisplay();
+		if (display.getThread() == Thread.currentThread()) {
+			viewer.addListener(SWT.Dispose, disposeListener);
+		} else {
+			display.asyncExec(() -> {
+				if (viewer.isDisposed()) {
+					removeViewer(viewer);
+				} else {
+					viewer.addListener(SWT.Dispose, disposeListener);
+				}
+			});
+		}
 	}
 
-	public void removeViewerWithPageParticipant(IConsolePageParticipant participant) {
-		final Set<StyledText> toRemove = new HashSet<>();
+	private void removeViewer(StyledText viewer) {
+		final IConsolePageParticipant participant = viewers.remove(viewer);
+		if (participant != null) {
+			participants.computeIfPresent(participant, (key, set) -> {
+				set.remove(viewer);
+				return set.isEmpty() ? null : set;
+			});
+		}
+	}
 
-		for (final Entry<StyledText, IConsolePageParticipant> entry : viewers.entrySet()) {
-			if (entry.getValue() == participant) {
-				toRemove.add(entry.getKey());
+	/**
+	 * Unregister the viewers of a participant (may be called from any thread)
+	 *
+	 * @param participant the participant
+	 */
+	public void removeViewerWithPageParticipant(IConsolePageParticipant participant) {
+		final Set<StyledText> removed = participants.remove(participant);
+		if (removed != null) {
+			for (final StyledText viewer : removed) {
+				viewers.remove(viewer, participant);
 			}
 		}
+	}
+
+	/**
+	 * @return the number of registered viewers (the consoles being styled)
+	 */
+	public int getViewerCount() {
+		return viewers.size();
+	}
+
+	/**
+	 * @return the registered viewers (a live view)
+	 */
+	public Set<StyledText> getViewers() {
+		return Collections.unmodifiableSet(viewers.keySet());
+	}
 
-		for (final StyledText viewer : toRemove) {
-			viewers.remove(viewer);
+	/**
+	 * Redraw all viewers once at the next UI tick, the calls made meanwhile (from
+	 * any thread) are coalesced
+	 */
+	public void scheduleRedraw() {
+		if (redrawScheduled.compareAndSet(false, true)) {
+			final Display display = Display.getDefault();
+			if (display.isDisposed()) {
+				redrawScheduled.set(false);
+				return;
+			}
+			display.asyncExec(() -> {
+				redrawScheduled.set(false);
+				redrawViewers();
+			});
 		}
 	}
 
 	/**
-	 * Redraw all viewers
+	 * Redraw the visible lines of all visible viewers (UI thread only)
 	 */
 	public void redrawViewers() {
 		for (final StyledText viewer : viewers.keySet()) {
 			if (!viewer.isDisposed() && viewer.isVisible()) {
-				viewer.redraw();
+				redrawVisibleLines(viewer);
+			}
+		}
+	}
+
+	/**
+	 * Compute again the styles of all the lines of all viewers, including the
+	 * hidden ones, so no viewer keeps a style computed before (UI thread only)
+	 */
+	public void restyleViewers() {
+		for (final StyledText viewer : viewers.keySet()) {
+			if (!viewer.isDisposed()) {
+				// the renderer also caches the layouts of lines off screen, redrawing a
+				// range drops them (only the visible part is painted)
+				viewer.redrawRange(0, viewer.getCharCount(), false);
 			}
 		}
 	}
+
+	private static void redrawVisibleLines(StyledText viewer) {
+		final int top = viewer.getTopIndex();
+		final int bottom = viewer.getLineIndex(viewer.getClientArea().height);
+		final int start = viewer.getOffsetAtLine(top);
+		final int end = bottom + 1 < viewer.getLineCount() ? viewer.getOffsetAtLine(bottom + 1)
+				: viewer.getCharCount();
+		if (end > start) {
+			viewer.redrawRange(start, end - start, false);
+		}
+	}
 }
@@ -11,15 +11,22 @@
 package org.eclipse.prettyconsole.participants;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentPartitioner;
 import org.eclipse.jface.text.ITypedRegion;
-import org.eclipse.prettyconsole.PrettyConsoleUtils;
+import org.eclipse.prettyconsole.PrettyConsoleActivator;
 import org.eclipse.prettyconsole.preferences.PreferenceUtils;
 import org.eclipse.prettyconsole.utils.StyleAttribute;
 import org.eclipse.swt.SWT;
@@ -28,170 +35,323 @@ import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.GlyphMetrics;
+import org.eclipse.swt.widgets.Display;
 
 public class DocumentPartitioner implements IDocumentPartitioner {
 
-	// store the last processed attributes
-	private StyleAttribute attributes = StyleAttribute.DEFAULT;
-	// the matcher used to find escape sequences
-	private final Matcher matcher = PrettyConsoleUtils.ESCAPE_SEQUENCE_REGEX_TXT.matcher("");
-	// the last incomplete escape sequence
-	private String incompleteEscapeSequence = "";
-
 	public static final String PARTITION_NAME = "pretty_console";
 
+	// the text searched before the top line of a viewer for its attributes, and
+	// the text styled from it, while a large backlog is scanned
+	private static final int CATCH_UP_SEARCH = 1 << 18;
+	private static final int CATCH_UP_RANGE = 1 << 18;
+
 	private boolean enable;
 	private IDocument document;
 
-	// the styled positions
-	private final List<AbstractStyledPosition> positions = new ArrayList<>();
+	// compute the positions of the document (replaced on each connection)
+	private DocumentScanner scanner;
+	// true if the scanner is used from the styling worker
+	private boolean background;
+	// the background parsing preference when connected
+	private boolean backgroundPreference;
+	// detects the floods of output, the scanner is then used from the styling
+	// worker until the output calms down
+	private final FloodGovernor governor = new FloodGovernor();
+	// true if the scanner was moved to the styling worker for a flood or a large
+	// text, it moves back once the worker is idle
+	private boolean flooded;
+	// the positions around the painted lines when the scanner only records
+	// checkpoints (lazy styling), null otherwise
+	private LazyWindow window;
+	// true if styled lazily to stay within the memory budget
+	private boolean evicted;
+	// the order of the evictions (UI thread only), and the memory used per char
+	// before the eviction of this partitioner
+	private static long evictionCount;
+	private long evictionOrder;
+	private double evictedMemoryPerChar;
+	// the order of the last paint of the partitioners (UI thread only)
+	private static long paintCount;
+	private long lastPainted;
+	// the styles computed by the streams when the escape sequences are removed
+	// before reaching the document, null otherwise
+	private StrippedStyles stripped;
+	// true while the pages of the document are hidden: the appended text is only
+	// scanned when they are shown again, from this stream offset
+	private boolean hidden;
+	private int hiddenFrom;
+	// incremented on each suspension, drops the hibernation of the previous ones
+	private int suspensions;
+	// the positions of the lines from the top of a viewer while a large backlog is
+	// scanned, computed from the attributes found just before them (null
+	// otherwise), and the stream offsets of these lines and of the backlog end
+	private LazyWindow catchUp;
+	private PositionStore catchUpCheckpoints;
+	private int catchUpStart;
+	private int catchUpEnd;
+	// incremented on each connection, the changes and snapshots of an older
+	// generation are dropped
+	private volatile int generation;
+	// stream offset of the beginning of the document as seen by the UI thread (and
+	// by the readers holding the document lock)
+	private volatile int base;
+	// the same offset for the readers of the current connection (its loads and
+	// catch-ups), replaced on each connection: the readers of a previous one see
+	// all their text as removed instead of reading the text of the next one
+	private AtomicInteger readerBase = new AtomicInteger();
+
+	// the document changes waiting for the styling worker
+	private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	// true while the styling worker applies changes
+	private volatile boolean draining;
+	// the load being scanned by a job, the queued changes wait for it
+	private final AtomicReference<Load> loading = new AtomicReference<>();
+
+	// the last positions published to the UI thread
+	private final AtomicReference<Snapshot> published = new AtomicReference<>(Snapshot.EMPTY);
+
+	// the resolved styles of the attributes (shared by all the consoles)
+	private static final StyleTemplates TEMPLATES = new StyleTemplates();
+
+	// the styles of the last painted lines
+	private final LineStyleCache cache = new LineStyleCache();
 
 	// Style list
 	final List<StyleRange> styles = new ArrayList<>();
 
 	public void updateEventStyles(LineStyleEvent event, Color foregroundColor, Color backgroundColor) {
 
-		// no position means nothing to do
-		if (positions.isEmpty() || event.lineText == null || event.lineText.isEmpty()) {
+		final Snapshot snapshot = published.get();
+
+		// ignore the positions of a previous connection
+		if (snapshot.generation != generation) {
 			return;
 		}
+		lastPainted = ++paintCount;
 
-		// keep existing styles if any
-		if (event.styles != null) {
-			Collections.addAll(styles, event.styles);
+		if (event.lineText == null || event.lineText.isEmpty()) {
+			return;
 		}
 
-		// filters all the positions that overlap with the current event line
-
 		final int offset = event.lineOffset;
 		final int length = event.lineText.length();
+		final int streamOffset = base + offset;
 
-		final int rangeEnd = offset + length;
-		int left = 0;
-		int right = positions.size() - 1;
-
-		int mid;
-		AbstractStyledPosition position;
+		PositionStore positions = snapshot.positions;
+		int end = snapshot.end;
 
-		// find the first overlapping position
-		while (left < right) {
-			mid = (left + right) / 2;
-			position = positions.get(mid);
-			if (rangeEnd < position.getOffset()) {
-				if (left == mid) {
-					right = left;
-				} else {
-					right = mid - 1;
-				}
-			} else if (offset > position.getOffset() + position.getLength() - 1) {
-				if (right == mid) {
-					left = right;
-				} else {
-					left = mid + 1;
-				}
-			} else {
-				left = right = mid;
-			}
+		// the backlog has been scanned
+		if (catchUp != null && end - catchUpEnd >= 0) {
+			catchUp = null;
+			catchUpCheckpoints = null;
 		}
 
-		int index = left - 1;
-		if (index >= 0) {
-			position = positions.get(index);
-			while (index >= 0 && position.getOffset() + position.getLength() > offset) {
-				index--;
-				if (index > 0) {
-					position = positions.get(index);
-				}
-			}
+		// the lines from the top of the viewer are styled before the backlog scan
+		// reaches them
+		if (catchUp != null && streamOffset + length - end > 0 && streamOffset - catchUpStart >= 0
+				&& streamOffset - catchUpStart < CATCH_UP_RANGE) {
+			positions = catchUp.update(catchUpCheckpoints, base, offset, offset + length);
+			end = catchUp.getEnd();
+		}
+		// the snapshot only holds the checkpoints when styling lazily
+		else if (window != null) {
+			positions = window.update(positions, base, offset, offset + length);
+			end = window.getEnd();
 		}
-		index++;
-		position = positions.get(index);
-		boolean found = false;
 
-		// process positions that overlap with the current line
-		while (index < positions.size() && position.getOffset() < rangeEnd) {
+		// no position means nothing to do
+		if (positions.isEmpty()) {
+			return;
+		}
 
-			position.overrideStyleRange(styles, offset, length, foregroundColor, backgroundColor);
+		final StyleRange[] cached = cache.get(streamOffset, event, foregroundColor, backgroundColor, positions);
+		if (cached != null) {
+			event.styles = cached;
+			return;
+		}
+		final StyleRange[] input = copy(event.styles);
+		final PositionStore key = positions;
 
-			found = true;
-			index++;
-			if (index < positions.size()) {
-				position = positions.get(index);
-			}
+		// the beginning of the document may have been removed after the snapshot
+		if (positions.getBase() != base) {
+			positions = positions.rebase(base);
 		}
 
+		// filters all the positions that overlap with the current event line
+
+		// find the first overlapping position
+		final int index = positions.indexAfter(offset);
+
 		// update event styles if found an overlapping position
-		if (found) {
+		if (index < positions.size() && positions.getOffset(index) < offset + length) {
+			mergeStyles(event.styles, positions, index, offset, offset + length, foregroundColor, backgroundColor);
 			event.styles = styles.toArray(new StyleRange[0]);
+			styles.clear();
 		}
 
-		styles.clear();
+		// the positions of the line are final if it has been completely scanned
+		final boolean complete = end - (streamOffset + length) >= 0;
+		cache.put(streamOffset, event, input, foregroundColor, backgroundColor, key, complete, event.styles);
 	}
 
-	protected void update(int offset, String text) {
+	private static StyleRange[] copy(StyleRange[] ranges) {
+		if (ranges == null) {
+			return null;
+		}
+		final StyleRange[] copy = new StyleRange[ranges.length];
+		for (int i = 0; i < ranges.length; i++) {
+			copy[i] = (StyleRange) ranges[i].clone();
+		}
+		return copy;
+	}
+
+	private void doConnect() {
+		doConnect(-1);
+	}
 
-		if (text == null || text.isEmpty()) {
+	// connect again, the lines from an offset (the top of a viewer, -1 if none) are
+	// styled first
+	private void doConnect(int top) {
+
+		enable = true;
+		backgroundPreference = PreferenceUtils.isBackgroundParsing();
+		final boolean lazy = isLazy();
+		StylingBudget.register(this);
+		scanner = new DocumentScanner(StyleAttribute.DEFAULT, lazy);
+		window = lazy ? new LazyWindow(document) : null;
+		stripped = StrippedStyles.get(document);
+		// the stripped positions count the text removed before the connection
+		readerBase.set(Integer.MAX_VALUE);
+		readerBase = new AtomicInteger();
+		setBase(stripped != null ? stripped.getBase() : 0);
+		// the text of hidden pages is only scanned when they are shown
+		hiddenFrom = hidden ? base : base + document.getLength();
+		changes.clear();
+		// the load of a previous connection is dropped by its job
+		loading.set(null);
+		cache.clear();
+		catchUp = null;
+		catchUpCheckpoints = null;
+		published.set(new Snapshot(++generation, new PositionStore(), 0));
+
+		// nothing to scan, the document has no escape sequence
+		if (stripped != null) {
+			window = null;
+			publish(new Snapshot(generation, stripped.snapshot(), stripped.getEnd()));
 			return;
 		}
 
-		// Reuse the incomplete escape sequence if any
-		if (!incompleteEscapeSequence.isEmpty()) {
-			text = incompleteEscapeSequence + text;
-			offset -= incompleteEscapeSequence.length();
-			incompleteEscapeSequence = "";
+		background = backgroundPreference;
+		flooded = false;
+		if (hidden) {
+			return;
 		}
 
-		matcher.reset(text);
+		// initialize the positions (a large document is styled in background, like
+		// a flood)
+		final DocumentText text = new DocumentText(document, document.getLength(), readerBase::get);
+		if (!background && text.length() >= ParallelScan.THRESHOLD) {
+			background = true;
+			flooded = true;
+		}
+		if (top >= 0 && text.length() >= ParallelScan.THRESHOLD) {
+			startCatchUp(top, text.length());
+		}
+		update(new Load(scanner, generation, text));
+	}
 
-		int start = 0;
+	private void setBase(int value) {
+		base = value;
+		readerBase.set(value);
+	}
 
-		// find all escapes codes in the appended text and compute the new positions
-		while (matcher.find()) {
-			final int mstart = matcher.start();
+	// style the lines from the top of a viewer while a backlog is scanned by the
+	// styling worker, if their attributes can be found without scanning it
+	private void startCatchUp(int top, int end) {
+		catchUpStart = base + top;
+		catchUpEnd = end;
+		catchUpCheckpoints = LazyWindow.findCheckpoint(new DocumentText(document, end, () -> base), base,
+				catchUpStart, CATCH_UP_SEARCH);
+		catchUp = catchUpCheckpoints != null ? new LazyWindow(document, true) : null;
+	}
 
-			// add a position between two escape codes (or from the beginning to an escape
-			// code)
-			// add this position only if the attributes is of interest (different from
-			// default)
-			if (attributes != StyleAttribute.DEFAULT && mstart > start) {
-				positions.add(new StyledPosition(start + offset, mstart - start, attributes));
+	// apply a change in the UI thread or queue it for the styling worker
+	private void update(Change change) {
+		if (background) {
+			changes.add(change);
+			if (drainScheduled.compareAndSet(false, true)) {
+				StylingWorker.execute(this::drain);
 			}
-			final String group = matcher.group();
+		} else {
+			change.apply();
+			publish(change);
+		}
+	}
 
-			// save the incomplete escape sequence if any
-			if (matcher.hitEnd()) {
-				incompleteEscapeSequence = group;
-				return;
+	// apply the queued changes (called from the styling worker)
+	private void drain() {
+		drainScheduled.set(false);
+		draining = true;
+		try {
+			Change last = null;
+			Change change;
+			// stop at a load scanned by a job, the drain is scheduled again once done
+			while (loading.get() == null && (change = changes.poll()) != null) {
+				if (!isStale(change)) {
+					change.apply();
+					if (loading.get() != change) {
+						last = change;
+					}
+				}
 			}
 
-			// add a position to hide the escape code
-			positions.add(new EscapeCodePosition(mstart + offset, group.length()));
+			if (last != null) {
+				publish(last);
 
-			// update the attributes
-			attributes = attributes.apply(group);
-
-			// update the start offset
-			start = matcher.end();
+				// redraw the lines parsed after their first paint
+				final PrettyConsoleActivator activator = PrettyConsoleActivator.getDefault();
+				if (activator != null) {
+					activator.scheduleRedraw();
+				}
+			}
+		} finally {
+			draining = false;
 		}
+	}
 
-		// add a position between the last escape code (or from the beginning) and the
-		// end of the appended text
-		// add this position only if the attribute is of interest
-		if (attributes != StyleAttribute.DEFAULT && text.length() > start) {
-			positions.add(new StyledPosition(start + offset, text.length() - start, attributes));
+	// move the scanner to the styling worker during a flood, back once the worker
+	// is idle after the flood
+	private void updateFlood(String text) {
+		final boolean flood = text != null && governor.update(text);
+		if (flood && !background) {
+			background = true;
+			flooded = true;
+		} else if (!flood && flooded && changes.isEmpty() && !draining && loading.get() == null) {
+			background = false;
+			flooded = false;
 		}
-
 	}
 
-	private void doConnect() {
+	private boolean isStale(Change change) {
+		return change.generation != generation;
+	}
 
-		attributes = StyleAttribute.DEFAULT;
-		incompleteEscapeSequence = "";
-		enable = true;
+	// make the positions of the scanner visible to the UI thread
+	private void publish(Change change) {
+		publish(new Snapshot(change.generation, change.scanner.snapshot(), change.scanner.getEnd()));
+	}
 
-		positions.clear();
-		// initialize the positions
-		update(0, document.get());
+	private void publish(Snapshot snapshot) {
+		Snapshot current;
+		do {
+			current = published.get();
+			// never replace the snapshot of a newer connection
+			if (current.generation > snapshot.generation) {
+				return;
+			}
+		} while (!published.compareAndSet(current, snapshot));
 	}
 
 	@Override
@@ -200,10 +360,158 @@ public class DocumentPartitioner implements IDocumentPartitioner {
 		doConnect();
 	}
 
+	private boolean needsConnect() {
+		return !enable || backgroundPreference != PreferenceUtils.isBackgroundParsing() || (window != null) != isLazy()
+				|| StrippedStyles.get(document) != null;
+	}
+
+	/**
+	 * Stop scanning the appended text while the pages of the document are hidden,
+	 * the positions are released if they stay hidden longer than the hibernation
+	 * delay (must be called from the UI thread)
+	 */
+	void suspend() {
+		if (!enable || hidden || stripped != null) {
+			return;
+		}
+		hidden = true;
+		hiddenFrom = base + document.getLength();
+		final int suspension = ++suspensions;
+		final int delay = PreferenceUtils.getHibernateDelay();
+		if (delay > 0) {
+			Display.getCurrent().timerExec((int) Math.min(delay * 1000L, Integer.MAX_VALUE), () -> {
+				// still hidden since this suspension: release all the positions
+				if (hidden && suspension == suspensions && enable) {
+					doConnect();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return true while the styling is suspended for hidden pages
+	 */
+	boolean isSuspended() {
+		return hidden;
+	}
+
+	/**
+	 * Scan the text appended while the pages of the document were hidden, or all
+	 * the text if the positions were released meanwhile (must be called from the
+	 * UI thread)
+	 *
+	 * @param top the offset of the top line of the shown viewer (its lines are
+	 *            styled first), -1 if unknown
+	 */
+	void resume(int top) {
+		if (!hidden) {
+			return;
+		}
+		hidden = false;
+		suspensions++;
+		if (!PreferenceUtils.isPrettyConsoleEnabled() || stripped != null) {
+			return;
+		}
+		if (needsConnect()) {
+			doConnect(top);
+			return;
+		}
+
+		// the beginning of the text may have been removed meanwhile
+		final int from = hiddenFrom - base > 0 ? hiddenFrom : base;
+		final int end = base + document.getLength();
+		if (end - from <= 0) {
+			return;
+		}
+		// a large backlog is scanned by the styling worker, like a flood
+		if (end - from >= ParallelScan.THRESHOLD) {
+			if (!background) {
+				background = true;
+				flooded = true;
+			}
+			if (top >= 0) {
+				startCatchUp(top, end);
+			}
+		}
+		update(new CatchUp(scanner, generation, new DocumentText(document, end, readerBase::get), from, base));
+	}
+
+	// true if the scanner only records checkpoints
+	private boolean isLazy() {
+		return PreferenceUtils.isLazyStyling() || evicted;
+	}
+
+	/**
+	 * @return the approximate memory used to style the document (in bytes), the
+	 *         stripped positions are counted with their documents
+	 */
+	long getMemory() {
+		final Load load = loading.get();
+		return (stripped != null ? 0 : published.get().positions.getMemory()) + cache.getMemory()
+				+ (window != null ? window.getMemory() : 0) + (catchUp != null ? catchUp.getMemory() : 0)
+				+ (load != null ? load.memory.get() : 0);
+	}
+
+	/**
+	 * @return the order of the last paint of a line (larger when more recent)
+	 */
+	long getLastPainted() {
+		return lastPainted;
+	}
+
+	/**
+	 * Only keep the checkpoints of the document, the painted lines are styled on
+	 * demand
+	 *
+	 * @return false if the memory of the positions cannot be reduced
+	 */
+	boolean evict() {
+		if (!enable || window != null || stripped != null) {
+			return false;
+		}
+		evictedMemoryPerChar = (double) getMemory() / Math.max(document.getLength(), 1);
+		evictionOrder = ++evictionCount;
+		evicted = true;
+		doConnect();
+		return true;
+	}
+
+	/**
+	 * @return the order of the eviction (smaller when less recent), 0 if not
+	 *         evicted
+	 */
+	long getEvictionOrder() {
+		return enable && evicted && !hidden ? evictionOrder : 0;
+	}
+
+	/**
+	 * @return the approximate memory needed to style the document eagerly again
+	 *         (in bytes)
+	 */
+	long getRestoredMemory() {
+		return (long) (evictedMemoryPerChar * document.getLength());
+	}
+
+	/**
+	 * Style the document eagerly again after an eviction
+	 */
+	void restore() {
+		if (getEvictionOrder() != 0) {
+			evicted = false;
+			doConnect();
+		}
+	}
+
 	@Override
 	public void disconnect() {
+		StylingBudget.unregister(this);
 		enable = false;
-		positions.clear();
+		window = null;
+		catchUp = null;
+		catchUpCheckpoints = null;
+		changes.clear();
+		cache.clear();
+		published.set(new Snapshot(++generation, new PositionStore(), 0));
 	}
 
 	@Override
@@ -220,44 +528,38 @@ public class DocumentPartitioner implements IDocumentPartitioner {
 				disconnect();
 			}
 		}
-		// re-enable this partitioner
-		else if (!enable) {
+		// the text is written through stripping streams, only publish their positions
+		else if (enable && stripped != null) {
+			setBase(stripped.getBase());
+			publish(new Snapshot(generation, stripped.snapshot(), stripped.getEnd()));
+		}
+
+		// the pages are hidden, only follow the removed text
+		else if (enable && hidden) {
+			if (event.getOffset() == 0 && event.getLength() > 0) {
+				setBase(base + event.getLength());
+				update(new Change(scanner, generation, event.getLength(), 0, null));
+			}
+		}
+
+		// re-enable this partitioner (or restart it with the new parsing preferences)
+		else if (needsConnect()) {
 			doConnect();
 		}
 
 		else {
 			// adapt existing positions (we are interested only by remove events)
-			if (event.getOffset() == 0) {
-
-				final int length = event.getLength();
-
-				// remove all the starting positions
-				positions.removeIf(p -> p.offset + p.length < length);
-
-				if (length > 0) {
-
-					// update remaining positions
-					positions.parallelStream().forEach(p -> {
-
-						if (p.offset > length) {
-							// position after removed region
-							// position: _________PPPPP
-							// remove : xxxx
-							// result : _____PPPPP
-							p.offset -= length;
-						} else {
-							// position overlap with removed region
-							// position: __PPPPP__
-							// remove : xxxx
-							// result : PPP__
-							p.length -= length - p.offset;
-							p.offset = 0;
-						}
-					});
-				}
+			int removed = 0;
+			if (event.getOffset() == 0 && event.getLength() > 0) {
+				removed = event.getLength();
+				setBase(base + removed);
 			}
 			// handle new text
-			update(event.getOffset(), event.getText());
+			if (removed > 0 || event.getText() != null && !event.getText().isEmpty()) {
+				updateFlood(event.getText());
+				update(new Change(scanner, generation, removed, event.getOffset(), event.getText()));
+			}
+			StylingBudget.check();
 		}
 		return false;
 	}
@@ -282,180 +584,300 @@ public class DocumentPartitioner implements IDocumentPartitioner {
 		return null;
 	}
 
-	private static abstract class AbstractStyledPosition extends org.eclipse.jface.text.Position {
-
-		protected AbstractStyledPosition(int offset, int length) {
-			super(offset, length);
+	/**
+	 * Merge the existing styles of a line with the positions overlapping it in a
+	 * single pass. The existing styles are kept where no position overlaps them
+	 * and give their colors and decorations to the overlapping positions.
+	 * Contiguous styles which end up identical are coalesced.
+	 *
+	 * @param existing        the styles of the line (may be null)
+	 * @param positions       the positions of the document
+	 * @param index           the index of the first position overlapping the line
+	 * @param offset          the offset of the line
+	 * @param end             the offset of the end of the line
+	 * @param foregroundColor the default foreground color
+	 * @param backgroundColor the default background color
+	 */
+	private void mergeStyles(StyleRange[] existing, PositionStore positions, int index, int offset, int end,
+			Color foregroundColor, Color backgroundColor) {
+
+		if (existing == null) {
+			existing = new StyleRange[0];
+		} else if (!isSorted(existing)) {
+			existing = existing.clone();
+			Arrays.sort(existing, (a, b) -> Integer.compare(a.start, b.start));
 		}
 
-		protected abstract StyleRange getStyle(int offset, int length, Color foregroundColor, Color backgroundColor);
+		// everything before the cursor has been merged
+		int cursor = offset;
+		int i = 0;
+		while (i < existing.length || index < positions.size() && positions.getOffset(index) < end) {
 
-		public void overrideStyleRange(List<StyleRange> ranges, int offset, int length, Color foregroundColor,
-				Color backgroundColor) {
+			final StyleRange range = i < existing.length ? existing[i] : null;
+			final int rangeStart = range != null ? Math.max(range.start, cursor) : Integer.MAX_VALUE;
+			final int rangeEnd = range != null ? range.start + range.length : Integer.MAX_VALUE;
 
-			final int overrideStart = Math.max(offset, this.offset);
-			final int overrideEnd = Math.min(offset + length, this.offset + this.length);
-			int insertIndex = ranges.size();
-			for (int i = ranges.size() - 1; i >= 0; i--) {
-				final StyleRange existingRange = ranges.get(i);
-				final int existingStart = existingRange.start;
-				final int existingEnd = existingStart + existingRange.length;
+			// skip the empty existing styles or those overlapped by the previous ones
+			if (rangeEnd <= cursor) {
+				i++;
+				continue;
+			}
 
-				// Find first position to insert where offset of new style is smaller then all
-				// offsets before. This way the list is still sorted by offset after insert if
-				// it was sorted before and it will not fail if list was not sorted.
-				if (overrideStart <= existingStart) {
-					insertIndex = i;
-				}
+			final boolean hasPosition = index < positions.size() && positions.getOffset(index) < end;
+			final int positionStart = hasPosition ? Math.max(positions.getOffset(index), cursor) : Integer.MAX_VALUE;
+			final int positionEnd = hasPosition ? Math.min(positions.getEnd(index), end) : Integer.MAX_VALUE;
+
+			final int start = Math.min(rangeStart, positionStart);
+			final StyleRange style;
+			if (rangeStart < positionStart) {
+				// existing style alone
+				cursor = Math.min(rangeEnd, positionStart);
+				style = (StyleRange) range.clone();
+				style.start = start;
+				style.length = cursor - start;
+			} else if (positionStart < rangeStart) {
+				// position alone
+				cursor = Math.min(positionEnd, rangeStart);
+				style = getStyle(start, cursor - start, positions.getAttribute(index), foregroundColor,
+						backgroundColor);
+			} else {
+				// position over an existing style
+				cursor = Math.min(rangeEnd, positionEnd);
+				style = combine(range, start, cursor - start, positions.getAttribute(index), foregroundColor,
+						backgroundColor);
+			}
 
-				// adjust the existing style if required
-				if (overrideStart <= existingStart) { // new style starts before or with existing
-					if (overrideEnd < existingStart) {
-						// new style lies before existing style. No overlapping.
-						// new style: ++++_________
-						// existing : ________=====
-						// . result : ++++____=====
-						// nothing to do
-					} else if (overrideEnd < existingEnd) {
-						// new style overlaps start of existing.
-						// new style: ++++++++_____
-						// existing : _____========
-						// . result : ++++++++=====
-						final int overlap = overrideEnd - existingStart;
-						existingRange.start += overlap;
-						existingRange.length -= overlap;
-						// TODO combine overlapping part
-					} else {
-						// new style completely overlaps existing.
-						// new style: ___++++++++++
-						// existing : ___======____
-						// . result : ___++++++++++
-						ranges.remove(i);
-
-						if (existingRange.foreground != null) {
-							foregroundColor = existingRange.foreground;
-						}
-						if (existingRange.background != null) {
-							backgroundColor = existingRange.background;
-						}
+			if (cursor == rangeEnd) {
+				i++;
+			}
+			if (cursor == positionEnd) {
+				index++;
+			}
 
-					}
-				} else if (existingEnd < overrideStart) {
-					// new style lies after existing style. No overlapping.
-					// new style: _________++++
-					// existing : =====________
-					// . result : =====____++++
-					// nothing to do
-				} else if (overrideEnd >= existingEnd) {
-					// new style overlaps end of existing.
-					// new style: _____++++++++
-					// existing : ========_____
-					// . result : =====++++++++
-					existingRange.length -= existingEnd - overrideStart;
-				} else {
-					// new style lies inside existing style but not overrides all of it
-					// (and does not touch first or last offset of existing)
-					// new style: ____+++++____
-					// existing : =============
-					// . result : ====+++++====
-					final StyleRange clonedRange = (StyleRange) existingRange.clone();
-					existingRange.length = overrideStart - existingStart;
-					clonedRange.start = overrideEnd;
-					clonedRange.length = existingEnd - overrideEnd;
-					ranges.add(i + 1, clonedRange);
-				}
+			if (style.length > 0) {
+				addStyle(style);
+			}
+		}
+	}
 
-				if (existingRange.foreground != null) {
-					foregroundColor = existingRange.foreground;
-				}
-				if (existingRange.background != null) {
-					backgroundColor = existingRange.background;
-				}
+	// add a style after the last one, extending the last one if identical
+	private void addStyle(StyleRange style) {
+		if (!styles.isEmpty()) {
+			final StyleRange last = styles.get(styles.size() - 1);
+			if (last.start + last.length == style.start && last.similarTo(style)) {
+				last.length += style.length;
+				return;
+			}
+		}
+		styles.add(style);
+	}
 
+	private static boolean isSorted(StyleRange[] ranges) {
+		for (int i = 1; i < ranges.length; i++) {
+			if (ranges[i].start < ranges[i - 1].start) {
+				return false;
 			}
-			ranges.add(insertIndex,
-					getStyle(overrideStart, overrideEnd - overrideStart, foregroundColor, backgroundColor));
 		}
+		return true;
+	}
+
+	/**
+	 * Get the Style of a position over an existing style: the attributes of the
+	 * position win, the decorations of the existing style (hyperlinks, font...)
+	 * are kept where the position does not set them
+	 */
+	private static StyleRange combine(StyleRange range, int offset, int length, StyleAttribute attribute,
+			Color foregroundColor, Color backgroundColor) {
+
+		final StyleRange style = getStyle(offset, length, attribute,
+				range.foreground != null ? range.foreground : foregroundColor,
+				range.background != null ? range.background : backgroundColor);
+
+		style.fontStyle |= range.fontStyle;
+		if (style.font == null) {
+			style.font = range.font;
+		}
+		if (style.metrics == null) {
+			style.metrics = range.metrics;
+		}
+		if (!style.underline && range.underline) {
+			style.underline = true;
+			style.underlineStyle = range.underlineStyle;
+			style.underlineColor = range.underlineColor;
+		}
+		if (!style.strikeout && range.strikeout) {
+			style.strikeout = true;
+			style.strikeoutColor = range.strikeoutColor;
+		}
+		if (style.borderStyle == SWT.NONE && range.borderStyle != SWT.NONE) {
+			style.borderStyle = range.borderStyle;
+			style.borderColor = range.borderColor;
+		}
+		if (style.rise == 0) {
+			style.rise = range.rise;
+		}
+		style.data = range.data;
+		return style;
 	}
 
-	private static class StyledPosition extends AbstractStyledPosition {
+	/**
+	 * Get the Style of a position
+	 *
+	 * @param offset          the offset of the style
+	 * @param length          the length of the style
+	 * @param attribute       the attribute of the position or
+	 *                        {@link PositionStore#ESCAPE_CODE}
+	 * @param foregroundColor the default foreground color
+	 * @param backgroundColor the default background color
+	 * @return the Style of the position
+	 */
+	private static StyleRange getStyle(int offset, int length, StyleAttribute attribute, Color foregroundColor,
+			Color backgroundColor) {
+
+		StyleRange template = TEMPLATES.get(attribute, foregroundColor, backgroundColor);
+		if (template == null) {
+			template = createStyle(attribute, foregroundColor, backgroundColor);
+			TEMPLATES.put(attribute, foregroundColor, backgroundColor, template);
+		}
 
-		// StyleRange for the current position
-		protected final StyleAttribute attributes;
+		final StyleRange style = (StyleRange) template.clone();
+		style.start = offset;
+		style.length = length;
+		return style;
+	}
 
-		/**
-		 * Build a position with a specific style
-		 *
-		 * @param offset     the position offset
-		 * @param length     the position length
-		 * @param attributes the style
-		 */
-		public StyledPosition(int offset, int length, StyleAttribute attributes) {
-			super(offset, length);
-			this.attributes = attributes;
+	private static StyleRange createStyle(StyleAttribute attribute, Color foregroundColor, Color backgroundColor) {
 
+		if (attribute == PositionStore.ESCAPE_CODE) {
+			final StyleRange style = new StyleRange();
+			// update the the Style according to current preferences
+			if (PreferenceUtils.showEscapeCodes()) {
+				style.font = EscapeCodeStyle.MONO_FONT; // Show the codes in small, monospaced font
+			} else {
+				style.metrics = EscapeCodeStyle.HIDE_CODE; // Hide the codes
+			}
+			return style;
 		}
 
-		/**
-		 * Get the Style of the position
-		 *
-		 * @return the Style of the position
-		 */
-		@Override
-		public StyleRange getStyle(int offset, int length, Color foregroundColor, Color backgroundColor) {
+		final StyleRange style = new StyleRange(0, 0, foregroundColor, backgroundColor);
 
-			final StyleRange style = new StyleRange(offset, length, foregroundColor, backgroundColor);
+		// update the style with the attributes
+		StyleAttribute.updateRangeStyle(style, attribute);
 
-			// update the style with the attributes
-			StyleAttribute.updateRangeStyle(style, attributes);
+		return style;
+	}
 
-			return style;
+	// created on first use (from the UI thread)
+	private static class EscapeCodeStyle {
+		private static final Font MONO_FONT = new Font(null, "Monospaced", 6, SWT.NORMAL);
+		private static final GlyphMetrics HIDE_CODE = new GlyphMetrics(0, 0, 0);
+	}
+
+	// the positions published for a connection
+	private static final class Snapshot {
+		private static final Snapshot EMPTY = new Snapshot(0, new PositionStore(), 0);
+
+		private final int generation;
+		private final PositionStore positions;
+		// the stream offset up to which the positions are final
+		private final int end;
+
+		private Snapshot(int generation, PositionStore positions, int end) {
+			this.generation = generation;
+			this.positions = positions;
+			this.end = end;
 		}
+	}
 
-		@Override
-		public boolean equals(Object other) {
-			if (other instanceof StyledPosition) {
-				final StyledPosition rp = (StyledPosition) other;
-				return attributes.equals(rp.attributes) && super.equals(other);
-			}
-			return false;
+	// a change of the document
+	private static class Change {
+		final DocumentScanner scanner;
+		final int generation;
+		final int removed;
+		final int offset;
+		final String text;
+
+		private Change(DocumentScanner scanner, int generation, int removed, int offset, String text) {
+			this.scanner = scanner;
+			this.generation = generation;
+			this.removed = removed;
+			this.offset = offset;
+			this.text = text;
 		}
 
-		@Override
-		public int hashCode() {
-			return super.hashCode() ^ attributes.hashCode();
+		void apply() {
+			scanner.removeText(removed);
+			scanner.update(offset, text);
+		}
+	}
+
+	// the text appended while the pages were hidden, read window by window
+	private static final class CatchUp extends Change {
+		private final DocumentText content;
+		// the stream offset of the text
+		private final int from;
+		// the stream offset of the beginning of the document when queued
+		private final int origin;
+
+		private CatchUp(DocumentScanner scanner, int generation, DocumentText content, int from, int origin) {
+			super(scanner, generation, 0, 0, null);
+			this.content = content;
+			this.from = from;
+			this.origin = origin;
 		}
 
+		@Override
+		void apply() {
+			content.scan(scanner, from, content.length(), origin);
+		}
 	}
 
-	private static class EscapeCodePosition extends AbstractStyledPosition {
-		private static final Font MONO_FONT = new Font(null, "Monospaced", 6, SWT.NORMAL);
-		private static final GlyphMetrics HIDE_CODE = new GlyphMetrics(0, 0, 0);
+	// the initial content of the document (a large one is scanned in parallel by a
+	// job, the styling worker does not wait for it)
+	private final class Load extends Change {
+		private final DocumentText content;
+		// the memory used by the positions scanned by the job
+		private final AtomicLong memory = new AtomicLong();
 
-		/**
-		 * Build an escape code position
-		 *
-		 * @param offset the position offset
-		 * @param length the position length
-		 */
-		protected EscapeCodePosition(int offset, int length) {
-			super(offset, length);
+		private Load(DocumentScanner scanner, int generation, DocumentText content) {
+			super(scanner, generation, 0, 0, null);
+			this.content = content;
 		}
 
-		/**
-		 * update the style according to preferences
-		 */
 		@Override
-		protected StyleRange getStyle(int offset, int length, Color foregroundColor, Color backgroundColor) {
+		void apply() {
+			if (content.length() < ParallelScan.THRESHOLD) {
+				content.scan(scanner, 0, content.length());
+				return;
+			}
+			loading.set(this);
+			final Job job = Job.create("Styling console output", monitor -> {
+				try {
+					if (!ParallelScan.scan(content, scanner, monitor, () -> isStale(this), memory)) {
+						// the existing content stays plain, the next changes are still styled
+						throw new OperationCanceledException();
+					}
+				} finally {
+					loaded(this);
+				}
+			});
+			job.schedule();
+		}
+	}
 
-			final StyleRange style = new StyleRange(offset, length, null, null);
-			// update the the Style according to current preferences
-			if (PreferenceUtils.showEscapeCodes()) {
-				style.font = MONO_FONT; // Show the codes in small, monospaced font
-			} else {
-				style.metrics = HIDE_CODE; // Hide the codes
+	// publish the positions of a load and apply the changes received meanwhile
+	private void loaded(Load load) {
+		loading.compareAndSet(load, null);
+		load.memory.set(0);
+		if (!isStale(load)) {
+			publish(load);
+			final PrettyConsoleActivator activator = PrettyConsoleActivator.getDefault();
+			if (activator != null) {
+				activator.scheduleRedraw();
 			}
-			return style;
+		}
+		if (drainScheduled.compareAndSet(false, true)) {
+			StylingWorker.execute(this::drain);
 		}
 	}
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import org.eclipse.prettyconsole.utils.EscapeSequenceLexer;
+import org.eclipse.prettyconsole.utils.SgrParameters;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+
+/**
+ * Compute the styled positions of a document from its successive changes. A
+ * scanner is not thread safe: it must always be used by the same thread (the
+ * UI thread or the styling worker).
+ * <p>
+ * A lazy scanner does not compute the positions: it only records checkpoints,
+ * the attributes at regular intervals as runs of length 0, from where the
+ * positions of any part of the document can be computed when needed.
+ */
+class DocumentScanner implements EscapeSequenceLexer.Listener {
+
+	// minimal distance between two checkpoints
+	private static final int CHECKPOINT_INTERVAL = 1 << 14;
+
+	// store the last processed attributes
+	private StyleAttribute attributes;
+	// the lexer used to find escape sequences (keeps the incomplete escape sequence
+	// between two updates)
+	private final EscapeSequenceLexer lexer = new EscapeSequenceLexer();
+	// the buffer used to decode the SGR parameters
+	private final SgrParameters parameters = new SgrParameters();
+
+	// the styled positions
+	private final PositionStore positions = new PositionStore();
+	// the stream offset up to which the positions are final
+	private int end;
+
+	// true if only the checkpoints are recorded
+	private final boolean lazy;
+	// the stream offset from where the next checkpoint can be recorded
+	private int nextCheckpoint;
+
+	/**
+	 * @param attributes the attributes at the beginning of the scanned text
+	 */
+	DocumentScanner(StyleAttribute attributes) {
+		this(attributes, false);
+	}
+
+	/**
+	 * @param attributes the attributes at the beginning of the scanned text
+	 * @param lazy       true to record only the checkpoints
+	 */
+	DocumentScanner(StyleAttribute attributes, boolean lazy) {
+		this.attributes = attributes;
+		this.lazy = lazy;
+	}
+
+	boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * @return the attributes at the end of the scanned text
+	 */
+	StyleAttribute getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Compute the positions of a text appended to the document
+	 *
+	 * @param offset the offset of the text
+	 * @param text   the text
+	 */
+	void update(int offset, CharSequence text) {
+
+		if (text == null || text.length() == 0) {
+			return;
+		}
+
+		// find all escapes codes in the appended text and compute the new positions
+		lexer.scan(text, offset, this);
+		end = positions.getBase() + offset + text.length() - lexer.getPendingLength();
+	}
+
+	/**
+	 * Adapt the positions to the removal of the beginning of the document
+	 *
+	 * @param length the removed length
+	 */
+	void removeText(int length) {
+		if (length > 0 && lazy) {
+			// the text after the beginning can still be scanned from the last removed
+			// checkpoint (approximately)
+			positions.removeTextKeepingLast(length);
+		} else if (length > 0) {
+			positions.removeText(length);
+		}
+	}
+
+	/**
+	 * Remove the positions ending before an offset
+	 *
+	 * @param offset the offset
+	 */
+	void removeHead(int offset) {
+		positions.removeHead(positions.indexAfter(offset));
+	}
+
+	/**
+	 * Append the positions computed by the scanner of the following text
+	 *
+	 * @param other the scanner of the following text, it must have no incomplete
+	 *              escape sequence
+	 */
+	void append(DocumentScanner other) {
+		positions.addAll(other.positions);
+		attributes = other.attributes;
+		end = other.end;
+		nextCheckpoint = other.nextCheckpoint;
+	}
+
+	/**
+	 * @return the stream offset up to which the positions are final (the next
+	 *         changes only add positions after it)
+	 */
+	int getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the approximate memory used by the positions (in bytes)
+	 */
+	long getMemory() {
+		return positions.getMemory();
+	}
+
+	/**
+	 * @return an immutable view of the current positions
+	 */
+	PositionStore snapshot() {
+		return positions.snapshot();
+	}
+
+	@Override
+	public void text(int offset, int length) {
+		if (lazy) {
+			checkpoint(offset + length);
+			return;
+		}
+		// add a position between two escape codes (or from the beginning to an escape
+		// code)
+		// add this position only if the attributes is of interest (different from
+		// default)
+		if (attributes != StyleAttribute.DEFAULT) {
+			positions.add(offset, length, attributes);
+		}
+	}
+
+	@Override
+	public void escapeSequence(int offset, int length, CharSequence sequence) {
+		if (lazy) {
+			attributes = attributes.apply(sequence, parameters);
+			checkpoint(offset + length);
+			return;
+		}
+		// add a position to hide the escape code
+		positions.add(offset, length, PositionStore.ESCAPE_CODE);
+
+		// update the attributes
+		attributes = attributes.apply(sequence, parameters);
+	}
+
+	// record the attributes at an offset where a scan can start (the end of a text
+	// run or of an escape sequence)
+	private void checkpoint(int offset) {
+		final int streamOffset = positions.getBase() + offset;
+		if (positions.isEmpty() || streamOffset - nextCheckpoint >= 0) {
+			positions.add(offset, 0, attributes);
+			nextCheckpoint = streamOffset + CHECKPOINT_INTERVAL;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+
+/**
+ * The text of a document when connected, read by windows of limited size so
+ * the content of a large console is never copied at once.
+ * <p>
+ * Offsets are stream offsets: they stay valid when the beginning of the
+ * document is removed. The text removed before it could be read is seen as
+ * empty lines, as if it had been removed before the connection. A console
+ * document synchronizes its methods, so the windows are read while holding its
+ * lock to be consistent with the removals.
+ */
+class DocumentText {
+
+	static final int WINDOW_SIZE = 1 << 16;
+
+	private final IDocument document;
+	private final int length;
+	// the stream offset of the beginning of the document
+	private final IntSupplier base;
+
+	/**
+	 * @param document the document
+	 * @param length   the length of the text to read
+	 * @param base     gives the current stream offset of the beginning of the
+	 *                 document (read while holding the document lock)
+	 */
+	DocumentText(IDocument document, int length, IntSupplier base) {
+		this.document = document;
+		this.length = length;
+		this.base = base;
+	}
+
+	int length() {
+		return length;
+	}
+
+	/**
+	 * @param offset the stream offset of the window
+	 * @param count  the length of the window
+	 * @return the text of the window
+	 */
+	String get(int offset, int count) {
+		synchronized (document) {
+			final int removed = Math.min(Math.max(base.getAsInt() - offset, 0), count);
+			if (removed == 0) {
+				return read(offset - base.getAsInt(), count);
+			}
+			final char[] lines = new char[removed];
+			Arrays.fill(lines, '\n');
+			return new String(lines) + read(0, count - removed);
+		}
+	}
+
+	private String read(int offset, int count) {
+		try {
+			return count == 0 ? "" : document.get(offset, count);
+		} catch (final BadLocationException e) {
+			// the document is shorter than when connected
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Scan a part of the text window by window
+	 *
+	 * @param scanner the scanner of the text preceding the part
+	 * @param begin   the offset of the part
+	 * @param end     the offset after the part
+	 */
+	void scan(DocumentScanner scanner, int begin, int end) {
+		scan(scanner, begin, end, 0);
+	}
+
+	/**
+	 * Scan a part of the text window by window
+	 *
+	 * @param scanner the scanner of the text preceding the part
+	 * @param begin   the offset of the part
+	 * @param end     the offset after the part
+	 * @param origin  the stream offset of the beginning of the document for the
+	 *                scanner (its positions may not follow the last removals yet)
+	 */
+	void scan(DocumentScanner scanner, int begin, int end, int origin) {
+		for (int offset = begin; offset < end; offset += WINDOW_SIZE) {
+			final int count = Math.min(WINDOW_SIZE, end - offset);
+			scanner.update(offset - origin, get(offset, count));
+		}
+	}
+
+	/**
+	 * @param offset the offset where to start the search
+	 * @return the offset after the first line delimiter found from an offset or
+	 *         {@link #length()} if none
+	 */
+	int lineEnd(int offset) {
+		while (offset < length) {
+			final int count = Math.min(WINDOW_SIZE, length - offset);
+			final int index = get(offset, count).indexOf('\n');
+			if (index >= 0) {
+				return offset + index + 1;
+			}
+			offset += count;
+		}
+		return length;
+	}
+}
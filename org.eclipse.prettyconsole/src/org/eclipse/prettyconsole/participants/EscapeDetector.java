@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+
+/**
+ * Look for the first escape character of a document. The partitioner is only
+ * installed once one is found, so the consoles without escape sequences (most
+ * of them) only cost a search in the appended text.
+ */
+class EscapeDetector implements IDocumentListener {
+
+	private static final char ESC = '\u001b';
+
+	private final IDocument document;
+	private boolean found;
+
+	/**
+	 * Start looking for an escape character, must be called from the thread
+	 * modifying the document (the UI thread for the consoles)
+	 *
+	 * @param document the document
+	 */
+	EscapeDetector(IDocument document) {
+		this.document = document;
+		document.addDocumentListener(this);
+		found = containsEscape(document);
+	}
+
+	/**
+	 * @return true if the document contains (or has contained) an escape
+	 *         character
+	 */
+	boolean isFound() {
+		return found;
+	}
+
+	/**
+	 * Stop looking for an escape character
+	 */
+	void dispose() {
+		document.removeDocumentListener(this);
+	}
+
+	// search the text already in the document window by window
+	private static boolean containsEscape(IDocument document) {
+		final int length = document.getLength();
+		for (int offset = 0; offset < length; offset += DocumentText.WINDOW_SIZE) {
+			try {
+				if (document.get(offset, Math.min(DocumentText.WINDOW_SIZE, length - offset)).indexOf(ESC) >= 0) {
+					return true;
+				}
+			} catch (final BadLocationException e) {
+				// modified meanwhile: let the partitioner scan it
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void documentAboutToBeChanged(DocumentEvent event) {
+		// ignore
+	}
+
+	@Override
+	public void documentChanged(DocumentEvent event) {
+		if (!found && event.getText() != null && event.getText().indexOf(ESC) >= 0) {
+			found = true;
+		}
+	}
+}
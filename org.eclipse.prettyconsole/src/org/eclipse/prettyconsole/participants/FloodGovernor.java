@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.prettyconsole.preferences.PreferenceUtils;
+
+/**
+ * Measure the output rate of a document to detect a flood: more chars or more
+ * escape sequences per second than the thresholds of the preferences. Only
+ * used from the thread modifying the document.
+ */
+class FloodGovernor {
+
+	private static final char ESC = '\u001b';
+	private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+	// the beginning of the current period and what was received since
+	private long start = System.nanoTime();
+	private long chars;
+	private long escapes;
+	// true if the last complete period was a flood
+	private boolean flooded;
+
+	/**
+	 * Record a text appended to the document
+	 *
+	 * @param text the text
+	 * @return true if the document is flooded
+	 */
+	boolean update(String text) {
+		final long now = System.nanoTime();
+		if (now - start >= PERIOD) {
+			// a flood stops when a whole period was quiet
+			flooded = isFlood() && now - start < 2 * PERIOD;
+			start = now;
+			chars = 0;
+			escapes = 0;
+		}
+		chars += text.length();
+		if (PreferenceUtils.getFloodEscapes() > 0) {
+			for (int index = text.indexOf(ESC); index >= 0; index = text.indexOf(ESC, index + 1)) {
+				escapes++;
+			}
+		}
+		return flooded || isFlood();
+	}
+
+	private boolean isFlood() {
+		final int maxChars = PreferenceUtils.getFloodChars();
+		final int maxEscapes = PreferenceUtils.getFloodEscapes();
+		return maxChars > 0 && chars > maxChars || maxEscapes > 0 && escapes > maxEscapes;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.prettyconsole.utils.EscapeSequenceLexer;
+import org.eclipse.prettyconsole.utils.SgrParameters;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+
+/**
+ * The positions of the part of a document around the painted lines, used when
+ * the document is scanned lazily. Only used from the UI thread.
+ * <p>
+ * The positions are computed from the closest checkpoint before the painted
+ * lines, extended when the following lines are painted and dropped when the
+ * painted lines are far from them. The positions are stored by stream offset
+ * (the store base is always 0).
+ */
+class LazyWindow {
+
+	// the text scanned before and after the painted lines
+	private static final int MARGIN = 1 << 15;
+	// the positions further before the painted lines are dropped
+	private static final int MAX_BEFORE = 4 * MARGIN;
+
+	private final IDocument document;
+	// true if the attributes before the first checkpoint are unknown (never
+	// scanned from the beginning of the document)
+	private final boolean seeded;
+
+	private DocumentScanner scanner;
+	// the view of the positions given to the UI (replaced when the positions
+	// change)
+	private PositionStore view;
+	// the stream offsets of the beginning and the end of the scanned text
+	private int start;
+	private int scanned;
+
+	LazyWindow(IDocument document) {
+		this(document, false);
+	}
+
+	/**
+	 * @param document the document
+	 * @param seeded   true if the text before the first checkpoint must not be
+	 *                 scanned (see {@link #findCheckpoint})
+	 */
+	LazyWindow(IDocument document, boolean seeded) {
+		this.document = document;
+		this.seeded = seeded;
+	}
+
+	/**
+	 * Find the attributes at the beginning of a line from the escape sequences just
+	 * before it, without scanning the text from the beginning of the document: they
+	 * are known once these sequences set all the fields (a reset).
+	 *
+	 * @param text   the text of the document
+	 * @param first  the stream offset where the search stops
+	 * @param offset the stream offset of the beginning of the line
+	 * @param limit  the length of the text searched before the line
+	 * @return the checkpoints holding the attributes at the beginning of the line
+	 *         (stored by stream offset), null if they depend on the text before
+	 *         the limit
+	 */
+	static PositionStore findCheckpoint(DocumentText text, int first, int offset, int limit) {
+		final SgrParameters parameters = new SgrParameters();
+		StyleAttribute.Delta delta = new StyleAttribute.Delta();
+		int end = offset;
+		while (end - first > 0 && offset - end < limit) {
+			int begin = end - Math.min(DocumentText.WINDOW_SIZE, end - first);
+			final String window = text.get(begin, end - begin);
+			int index = 0;
+			// cut the window after a line delimiter, no escape sequence spans two lines
+			if (begin != first) {
+				index = window.indexOf('\n') + 1;
+				if (index == 0) {
+					return null;
+				}
+				begin += index;
+			}
+
+			// the effect of the window followed by the effect of the text after it
+			final StyleAttribute.Delta previous = new StyleAttribute.Delta();
+			new EscapeSequenceLexer().scan(window.substring(index), 0, new EscapeSequenceLexer.Listener() {
+				@Override
+				public void text(int position, int length) {
+					// only the escape sequences change the attributes
+				}
+
+				@Override
+				public void escapeSequence(int position, int length, CharSequence sequence) {
+					previous.apply(sequence, parameters);
+				}
+			});
+			previous.apply(delta);
+			delta = previous;
+
+			if (delta.isAbsolute()) {
+				final PositionStore checkpoints = new PositionStore();
+				checkpoints.add(offset, 0, delta.applyTo(StyleAttribute.DEFAULT));
+				return checkpoints;
+			}
+			end = begin;
+		}
+		return null;
+	}
+
+	/**
+	 * Compute the positions of a line if needed
+	 *
+	 * @param checkpoints the checkpoints of the document
+	 * @param base        the stream offset of the beginning of the document
+	 * @param offset      the offset of the line
+	 * @param end         the offset of the end of the line
+	 * @return the positions of the window (stored by stream offset)
+	 */
+	PositionStore update(PositionStore checkpoints, int base, int offset, int end) {
+
+		final int from = base + Math.max(offset - MARGIN, 0);
+		final int to = base + Math.min(end + MARGIN, document.getLength());
+
+		if (scanner == null || scanned - base < 0 || base + offset - start < 0 || from - scanned > 0) {
+			// the line is before the window or far after it (or the window was removed)
+			reset(checkpoints, base, from);
+		} else if (from - start > MAX_BEFORE) {
+			// forget the positions far before the line
+			scanner.removeHead(from);
+			start = from;
+			view = null;
+		}
+
+		// scan the text up to the margin after the line
+		if (to - scanned > 0) {
+			new DocumentText(document, to, () -> base).scan(scanner, scanned, to);
+			scanned = to;
+			view = null;
+		}
+
+		if (view == null) {
+			view = scanner.snapshot();
+		}
+		return view;
+	}
+
+	/**
+	 * @return the approximate memory used by the positions (in bytes)
+	 */
+	long getMemory() {
+		return scanner != null ? scanner.getMemory() : 0;
+	}
+
+	/**
+	 * @return the stream offset up to which the positions are final
+	 */
+	int getEnd() {
+		return scanner != null ? scanner.getEnd() : 0;
+	}
+
+	// restart the window from the last checkpoint before an offset
+	private void reset(PositionStore checkpoints, int base, int offset) {
+		StyleAttribute attributes = StyleAttribute.DEFAULT;
+		start = base;
+
+		int index = checkpoints.indexAfter(offset - checkpoints.getBase()) - 1;
+		if (index < 0 && seeded && !checkpoints.isEmpty()) {
+			index = 0;
+		}
+		if (index >= 0) {
+			attributes = checkpoints.getAttribute(index);
+			final int checkpoint = checkpoints.getBase() + checkpoints.getOffset(index);
+			// the text before the beginning of the document is removed
+			if (checkpoint - base > 0) {
+				start = checkpoint;
+			}
+		}
+
+		scanner = new DocumentScanner(attributes);
+		scanned = start;
+		view = null;
+	}
+}
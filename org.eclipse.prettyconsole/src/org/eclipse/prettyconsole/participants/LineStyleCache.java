@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.custom.LineStyleEvent;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.graphics.Color;
+
+/**
+ * Bounded cache of the styles computed for the lines of a document, only used
+ * from the UI thread.
+ * <p>
+ * Lines are identified by their stream offset, so the cached styles survive the
+ * removal of the beginning of the document: they are only shifted to the new
+ * line offset. A line is computed again when its text, the styles of the
+ * viewer, the default colors or the preferences change, or when its positions
+ * were not final (the end of the document still being scanned).
+ */
+class LineStyleCache {
+
+	// number of cached lines (must be a power of 2)
+	private static final int SIZE = 1 << 12;
+
+	// approximate memory of a line and of a style (in bytes)
+	private static final int LINE_MEMORY = 80;
+	private static final int STYLE_MEMORY = 96;
+
+	private final Line[] lines = new Line[SIZE];
+
+	/**
+	 * Get the cached styles of a line
+	 *
+	 * @param streamOffset    the stream offset of the line
+	 * @param event           the event of the line
+	 * @param foregroundColor the default foreground color
+	 * @param backgroundColor the default background color
+	 * @param positions       the positions used to style the line
+	 * @return the styles of the line or null if not cached
+	 */
+	StyleRange[] get(int streamOffset, LineStyleEvent event, Color foregroundColor, Color backgroundColor,
+			Object positions) {
+		final Line line = lines[index(streamOffset)];
+		if (line == null || line.streamOffset != streamOffset || line.length != event.lineText.length()
+				|| line.version != StyleTemplates.getVersion() || !line.complete && line.positions != positions
+				|| !line.foregroundColor.equals(foregroundColor) || !line.backgroundColor.equals(backgroundColor)) {
+			return null;
+		}
+		line.moveTo(event.lineOffset);
+		return Arrays.equals(line.input, event.styles) ? line.styles : null;
+	}
+
+	/**
+	 * Cache the styles of a line
+	 *
+	 * @param streamOffset    the stream offset of the line
+	 * @param event           the event of the line
+	 * @param input           a copy of the styles of the event before they were
+	 *                        updated
+	 * @param foregroundColor the default foreground color
+	 * @param backgroundColor the default background color
+	 * @param positions       the positions used to style the line
+	 * @param complete        true if the positions of the line are final
+	 * @param styles          the styles of the line
+	 */
+	void put(int streamOffset, LineStyleEvent event, StyleRange[] input, Color foregroundColor,
+			Color backgroundColor, Object positions, boolean complete, StyleRange[] styles) {
+		final Line line = new Line();
+		line.streamOffset = streamOffset;
+		line.lineOffset = event.lineOffset;
+		line.length = event.lineText.length();
+		line.version = StyleTemplates.getVersion();
+		line.foregroundColor = foregroundColor;
+		line.backgroundColor = backgroundColor;
+		line.positions = complete ? null : positions;
+		line.complete = complete;
+		line.input = input;
+		line.styles = styles;
+		lines[index(streamOffset)] = line;
+	}
+
+	/**
+	 * @return the approximate memory used by the cached lines (in bytes)
+	 */
+	long getMemory() {
+		long memory = 0;
+		for (final Line line : lines) {
+			if (line != null) {
+				memory += LINE_MEMORY + STYLE_MEMORY * (length(line.input) + length(line.styles));
+			}
+		}
+		return memory;
+	}
+
+	private static int length(StyleRange[] ranges) {
+		return ranges != null ? ranges.length : 0;
+	}
+
+	void clear() {
+		Arrays.fill(lines, null);
+	}
+
+	private static int index(int streamOffset) {
+		return streamOffset * 0x9E3779B9 >>> Integer.numberOfLeadingZeros(SIZE - 1);
+	}
+
+	// the styles of a line and the values they were computed from
+	private static final class Line {
+		private int streamOffset;
+		private int lineOffset;
+		private int length;
+		private long version;
+		private Color foregroundColor;
+		private Color backgroundColor;
+		// the positions if they were not final
+		private Object positions;
+		private boolean complete;
+		private StyleRange[] input;
+		private StyleRange[] styles;
+
+		// shift the styles when the beginning of the document has been removed
+		private void moveTo(int offset) {
+			final int delta = offset - lineOffset;
+			if (delta != 0) {
+				shift(input, delta);
+				shift(styles, delta);
+				lineOffset = offset;
+			}
+		}
+
+		private static void shift(StyleRange[] ranges, int delta) {
+			if (ranges != null) {
+				for (final StyleRange range : ranges) {
+					range.start += delta;
+				}
+			}
+		}
+	}
+}
@@ -11,8 +11,11 @@
 package org.eclipse.prettyconsole.participants;
 
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension3;
+import org.eclipse.jface.text.IDocumentPartitioner;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.prettyconsole.PrettyConsoleActivator;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.ST;
 import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.widgets.Listener;
@@ -22,7 +25,16 @@ import org.eclipse.ui.console.IConsole;
 import org.eclipse.ui.console.IConsolePageParticipant;
 import org.eclipse.ui.part.IPageBookViewPage;
 
+/**
+ * Style the viewer of a console page. The styling of the document is suspended
+ * while the page is hidden and the partitioner is released when the page is
+ * disposed (unless another page shows the same document).
+ */
 public class PageParticipant implements IConsolePageParticipant {
+
+	private StyledText viewer;
+	private IDocument document;
+
 	@Override
 	public <T> T getAdapter(Class<T> adapter) {
 		return null;
@@ -30,17 +42,27 @@ public class PageParticipant implements IConsolePageParticipant {
 
 	@Override
 	public void activated() {
-		// Nothing to do, but we are forced to implement it for IConsolePageParticipant
+		resume();
 	}
 
 	@Override
 	public void deactivated() {
-		// Nothing to do, but we are forced to implement it for IConsolePageParticipant
+		// the page stays visible when another view is activated
+		if (viewer != null && (viewer.isDisposed() || !viewer.isVisible())) {
+			suspend();
+		}
 	}
 
 	@Override
 	public void dispose() {
 		PrettyConsoleActivator.getDefault().removeViewerWithPageParticipant(this);
+		final DocumentPartitioner partitioner = getPartitioner();
+		if (partitioner != null && !isShownElsewhere(false)) {
+			((IDocumentExtension3) document).setDocumentPartitioner(DocumentPartitioner.PARTITION_NAME, null);
+			partitioner.disconnect();
+		}
+		viewer = null;
+		document = null;
 	}
 
 	@Override
@@ -51,18 +73,68 @@ public class PageParticipant implements IConsolePageParticipant {
 			if (document == null) {
 				return;
 			}
+			this.viewer = viewer;
+			this.document = document;
 			StyleListener.install(viewer);
+			viewer.addListener(SWT.Show, event -> resume());
+			viewer.addListener(SWT.Hide, event -> suspend());
 			PrettyConsoleActivator.getDefault().addViewer(viewer, this);
 		}
 	}
 
+	// scan the text appended while the page was hidden
+	private void resume() {
+		final DocumentPartitioner partitioner = getPartitioner();
+		if (partitioner != null) {
+			// the lines from the top of the viewer are styled first
+			final int top = viewer != null && !viewer.isDisposed() ? viewer.getOffsetAtLine(viewer.getTopIndex()) : -1;
+			partitioner.resume(top);
+		}
+	}
+
+	// stop scanning the appended text, unless another page shows it
+	private void suspend() {
+		final DocumentPartitioner partitioner = getPartitioner();
+		if (partitioner != null && !isShownElsewhere(true)) {
+			partitioner.suspend();
+		}
+	}
+
+	// the partitioner installed in the document of the page, null if none
+	private DocumentPartitioner getPartitioner() {
+		if (!(document instanceof IDocumentExtension3)) {
+			return null;
+		}
+		final IDocumentPartitioner partitioner = ((IDocumentExtension3) document)
+				.getDocumentPartitioner(DocumentPartitioner.PARTITION_NAME);
+		return partitioner instanceof DocumentPartitioner ? (DocumentPartitioner) partitioner : null;
+	}
+
+	// true if another viewer (a visible one if requested) shows the document of
+	// the page
+	private boolean isShownElsewhere(boolean visible) {
+		for (final StyledText other : PrettyConsoleActivator.getDefault().getViewers()) {
+			if (other != viewer && !other.isDisposed() && (!visible || other.isVisible())
+					&& getDocument(other) == document) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	// Find the document associated with the viewer
 	static IDocument getDocument(Widget viewer) {
+		final ITextViewer textViewer = getTextViewer(viewer);
+		return textViewer != null ? textViewer.getDocument() : null;
+	}
+
+	// Find the text viewer associated with the widget
+	static ITextViewer getTextViewer(Widget viewer) {
 		for (final Listener listener : viewer.getListeners(ST.LineGetStyle)) {
 			if (listener instanceof TypedListener) {
 				final Object evenListener = ((TypedListener) listener).getEventListener();
 				if (evenListener instanceof ITextViewer) {
-					return ((ITextViewer) evenListener).getDocument();
+					return (ITextViewer) evenListener;
 				}
 			}
 		}
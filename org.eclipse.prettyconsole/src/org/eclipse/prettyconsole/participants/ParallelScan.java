@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.prettyconsole.utils.SgrParameters;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+
+/**
+ * Scan a large text with several threads.
+ * <p>
+ * The text is cut in chunks just after a line delimiter, so no escape sequence
+ * spans two chunks. Each chunk is scanned in parallel as if it started with the
+ * default attributes, which also gives its effect on the attributes as a
+ * {@link StyleAttribute.Delta}. The deltas are composed in order to find the
+ * real attributes at the beginning of each chunk, and the few chunks which did
+ * not start with the default attributes are scanned again in parallel.
+ */
+class ParallelScan {
+
+	// smaller texts are scanned by a single thread
+	static final int THRESHOLD = 1 << 20;
+
+	static final int CHUNK_SIZE = 1 << 18;
+
+	// delay between two progress updates (in milliseconds)
+	private static final long PROGRESS_INTERVAL = 100;
+
+	private final DocumentText text;
+	// true to record only the checkpoints
+	private boolean lazy;
+	private final List<Chunk> chunks = new ArrayList<>();
+
+	private final AtomicInteger scanned = new AtomicInteger();
+	private volatile boolean canceled;
+	// the memory used by the positions of the chunks
+	private final AtomicLong memory;
+
+	private ParallelScan(DocumentText text, AtomicLong memory) {
+		this.text = text;
+		this.memory = memory;
+	}
+
+	/**
+	 * Scan a text, the positions are added to the scanner only if the scan
+	 * completes
+	 *
+	 * @param text     the text of the document
+	 * @param scanner  the scanner of the document (nothing scanned yet)
+	 * @param monitor  the progress monitor
+	 * @param stale    returns true when the scan is no longer needed
+	 * @param memory   updated with the memory used by the positions of the
+	 *                 chunks (in bytes) while scanning
+	 * @return false if the scan was canceled
+	 */
+	static boolean scan(DocumentText text, DocumentScanner scanner, IProgressMonitor monitor,
+			BooleanSupplier stale, AtomicLong memory) {
+		return new ParallelScan(text, memory).run(scanner, monitor, stale);
+	}
+
+	private boolean run(DocumentScanner scanner, IProgressMonitor monitor, BooleanSupplier stale) {
+
+		lazy = scanner.isLazy();
+
+		// the last chunk is scanned by the scanner itself, it may end with an
+		// incomplete escape sequence
+		int start = 0;
+		while (text.length() - start > CHUNK_SIZE) {
+			final int end = text.lineEnd(start + CHUNK_SIZE);
+			if (end == text.length()) {
+				break;
+			}
+			// guess the default attributes, except for the first chunk
+			chunks.add(new Chunk(start, end, chunks.isEmpty() ? scanner.getAttributes() : StyleAttribute.DEFAULT));
+			start = end;
+		}
+
+		final SubMonitor progress = SubMonitor.convert(monitor, "Styling console output", 2 * chunks.size() + 1);
+
+		// scan all the chunks
+		if (!await(new ScanTask(0, chunks.size()), progress, stale)) {
+			return false;
+		}
+
+		// find the attributes at the beginning of each chunk
+		StyleAttribute attributes = scanner.getAttributes();
+		for (final Chunk chunk : chunks) {
+			chunk.start = attributes;
+			attributes = chunk.delta.applyTo(attributes);
+		}
+
+		// scan again the chunks which were scanned with wrong attributes
+		if (!await(new ScanTask(0, chunks.size()), progress, stale)) {
+			return false;
+		}
+
+		for (final Chunk chunk : chunks) {
+			scanner.append(chunk.result);
+		}
+		text.scan(scanner, start, text.length());
+		progress.worked(1);
+		return true;
+	}
+
+	// wait for a task while reporting the progress
+	private boolean await(ForkJoinTask<?> task, SubMonitor progress, BooleanSupplier stale) {
+		ForkJoinPool.commonPool().execute(task);
+		int reported = 0;
+		while (true) {
+			try {
+				task.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+				break;
+			} catch (final TimeoutException e) {
+				if (progress.isCanceled() || stale.getAsBoolean()) {
+					// the chunks not yet started are skipped
+					canceled = true;
+				}
+			} catch (final InterruptedException e) {
+				canceled = true;
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (final ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+			final int done = scanned.get();
+			progress.worked(done - reported);
+			reported = done;
+		}
+		progress.worked(scanned.getAndSet(0) - reported);
+		if (progress.isCanceled() || stale.getAsBoolean()) {
+			canceled = true;
+		}
+		return !canceled;
+	}
+
+	// scan a range of chunks by splitting it in two halves
+	private final class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		private ScanTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int middle = from + to >>> 1;
+				invokeAll(new ScanTask(from, middle), new ScanTask(middle, to));
+			} else if (from < to && !canceled) {
+				chunks.get(from).scan();
+				scanned.incrementAndGet();
+			}
+		}
+	}
+
+	// a part of the text and the result of its scan
+	private final class Chunk {
+		private final int begin;
+		private final int end;
+
+		// the attributes at the beginning of the chunk
+		private StyleAttribute start;
+		// the effect of the chunk on the attributes
+		private final StyleAttribute.Delta delta = new StyleAttribute.Delta();
+		// the scanner of the chunk and the attributes it started with
+		private DocumentScanner result;
+		private StyleAttribute scannedStart;
+		// the memory of the result counted in the scan
+		private long counted;
+
+		private Chunk(int begin, int end, StyleAttribute start) {
+			this.begin = begin;
+			this.end = end;
+			this.start = start;
+		}
+
+		private void scan() {
+			if (result == null) {
+				// first scan: compute the delta too
+				final SgrParameters parameters = new SgrParameters();
+				result = new DocumentScanner(start, lazy) {
+					@Override
+					public void escapeSequence(int offset, int length, CharSequence sequence) {
+						delta.apply(sequence, parameters);
+						super.escapeSequence(offset, length, sequence);
+					}
+				};
+			} else if (scannedStart != start) {
+				result = new DocumentScanner(start, lazy);
+			} else {
+				return;
+			}
+			scannedStart = start;
+			text.scan(result, begin, end);
+			final long used = result.getMemory();
+			memory.addAndGet(used - counted);
+			counted = used;
+		}
+	}
+}
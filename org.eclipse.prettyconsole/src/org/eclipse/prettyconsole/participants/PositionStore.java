@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.Arrays;
+
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+
+/**
+ * Compact storage of the styled positions of a document.
+ * <p>
+ * Each position is a run of text with its (interned) {@link StyleAttribute} or
+ * {@link #ESCAPE_CODE} for an escape sequence. Runs are stored in parallel
+ * arrays, sorted by offset and never overlap. A run takes 10 bytes (with
+ * compressed references) instead of a {@link org.eclipse.jface.text.Position}
+ * object and its list slot. The attributes are referenced by the runs, so the
+ * attributes no longer used by any console can be garbage collected.
+ * <p>
+ * Offsets are stored relative to the start of the stream (the text removed from
+ * the beginning of the document included) and converted to document offsets
+ * when read, so removing text at the beginning of the document only moves the
+ * base offset. All the computations are done on the difference with the base
+ * offset, which stays valid when the stream offsets overflow.
+ * <p>
+ * A store is written by a single thread. {@link #snapshot()} gives an
+ * immutable view of the current runs that can be read from any thread once
+ * safely published: the arrays are shared with the view and the writer
+ * allocates new arrays instead of moving the runs seen by a view. The length
+ * of the last run is kept out of the arrays (it may still grow, see
+ * {@link #add(int, int, StyleAttribute)}), it is only written to the arrays
+ * once another run follows it, in a slot no existing view reads.
+ */
+class PositionStore {
+
+	// attribute of the runs hiding an escape sequence
+	static final StyleAttribute ESCAPE_CODE = null;
+
+	// longer runs are split in several runs
+	static final int MAX_LENGTH = Character.MAX_VALUE;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int[] offsets;
+	// the lengths of the runs, except the last one
+	private char[] lengths;
+	private StyleAttribute[] attributes;
+
+	// the valid runs are stored in [start, end)
+	private int start;
+	private int end;
+	// the length of the last run
+	private int lastLength;
+
+	// stream offset of the beginning of the document
+	private int base;
+
+	// true if the arrays are shared with a snapshot
+	private boolean shared;
+
+	PositionStore() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private PositionStore(PositionStore other, int base) {
+		offsets = other.offsets;
+		lengths = other.lengths;
+		attributes = other.attributes;
+		start = other.start;
+		end = other.end;
+		lastLength = other.lastLength;
+		this.base = base;
+		shared = true;
+	}
+
+	/**
+	 * @return an immutable view of the current runs
+	 */
+	PositionStore snapshot() {
+		shared = true;
+		return new PositionStore(this, base);
+	}
+
+	/**
+	 * Get an immutable view of the runs for a document where more text was
+	 * removed at the beginning
+	 *
+	 * @param newBase the stream offset of the beginning of the document
+	 * @return an immutable view of the runs
+	 */
+	PositionStore rebase(int newBase) {
+		final PositionStore store = new PositionStore(this, newBase);
+		store.removeHead(store.indexAfter(0));
+		return store;
+	}
+
+	/**
+	 * @return the stream offset of the beginning of the document
+	 */
+	int getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the number of runs
+	 */
+	int size() {
+		return end - start;
+	}
+
+	boolean isEmpty() {
+		return end == start;
+	}
+
+	/**
+	 * @return the approximate memory used by the arrays (in bytes)
+	 */
+	long getMemory() {
+		return (long) offsets.length * (Integer.BYTES + Character.BYTES + Integer.BYTES);
+	}
+
+	/**
+	 * @param index the index of a run
+	 * @return the document offset of the run (a run partially removed from the
+	 *         document starts at 0)
+	 */
+	int getOffset(int index) {
+		return Math.max(offsets[start + index] - base, 0);
+	}
+
+	int getLength(int index) {
+		return getEnd(index) - getOffset(index);
+	}
+
+	int getEnd(int index) {
+		return offsets[start + index] + length(start + index) - base;
+	}
+
+	/**
+	 * @param index the index of a run
+	 * @return the attribute of the run or {@link #ESCAPE_CODE}
+	 */
+	StyleAttribute getAttribute(int index) {
+		return attributes[start + index];
+	}
+
+	/**
+	 * Add a run after the last one. A text run directly following the last run
+	 * with the same attribute extends it (up to {@link #MAX_LENGTH}), so a long
+	 * output of the same color received line by line takes a few runs.
+	 *
+	 * @param offset    the document offset of the run
+	 * @param length    the length of the run
+	 * @param attribute the attribute of the run or {@link #ESCAPE_CODE}
+	 */
+	void add(int offset, int length, StyleAttribute attribute) {
+		offset += base;
+		if (length > 0 && attribute != ESCAPE_CODE && !isEmpty()) {
+			final int last = end - 1;
+			if (attributes[last] == attribute && lastLength > 0 && offsets[last] + lastLength == offset) {
+				final int added = Math.min(length, MAX_LENGTH - lastLength);
+				lastLength += added;
+				offset += added;
+				length -= added;
+				if (length == 0) {
+					return;
+				}
+			}
+		}
+		while (length > MAX_LENGTH) {
+			append(offset, MAX_LENGTH, attribute);
+			offset += MAX_LENGTH;
+			length -= MAX_LENGTH;
+		}
+		append(offset, length, attribute);
+	}
+
+	/**
+	 * Add the runs of another store after the last one. The first added run is
+	 * merged with the last one if they are contiguous with the same attribute.
+	 *
+	 * @param other the store of the following text
+	 */
+	void addAll(PositionStore other) {
+		for (int index = 0; index < other.size(); index++) {
+			add(other.getOffset(index), other.getLength(index), other.getAttribute(index));
+		}
+	}
+
+	private void append(int offset, int length, StyleAttribute attribute) {
+		if (end == offsets.length) {
+			grow();
+		}
+		if (!isEmpty()) {
+			// the previous run is final
+			lengths[end - 1] = (char) lastLength;
+		}
+		offsets[end] = offset;
+		attributes[end] = attribute;
+		lastLength = length;
+		end++;
+	}
+
+	private void grow() {
+		final int size = size();
+		if (!shared && start > 0 && size < offsets.length / 2) {
+			// enough room after removing the head
+			System.arraycopy(offsets, start, offsets, 0, size);
+			System.arraycopy(lengths, start, lengths, 0, size);
+			System.arraycopy(attributes, start, attributes, 0, size);
+		} else {
+			// grow the arrays, unless removing the head is enough
+			final int capacity = size < offsets.length / 2 ? offsets.length : offsets.length + (offsets.length >> 1);
+			offsets = Arrays.copyOfRange(offsets, start, start + capacity);
+			lengths = Arrays.copyOfRange(lengths, start, start + capacity);
+			attributes = Arrays.copyOfRange(attributes, start, start + capacity);
+			shared = false;
+		}
+		start = 0;
+		end = size;
+	}
+
+	/**
+	 * Find the first run ending after an offset
+	 *
+	 * @param offset the document offset
+	 * @return the index of the first run which ends after the offset or
+	 *         {@link #size()} if none
+	 */
+	int indexAfter(int offset) {
+		int low = start;
+		int high = end;
+		while (low < high) {
+			final int mid = low + high >>> 1;
+			if (offsets[mid] + length(mid) - base <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low - start;
+	}
+
+	// the length of the run in a slot of the arrays
+	private int length(int slot) {
+		return slot == end - 1 ? lastLength : lengths[slot];
+	}
+
+	/**
+	 * Remove the first runs
+	 *
+	 * @param count the number of runs to remove
+	 */
+	void removeHead(int count) {
+		start += count;
+		if (start == end) {
+			empty();
+		}
+	}
+
+	/**
+	 * Adapt the runs to the removal of the beginning of the document
+	 *
+	 * @param length the removed length
+	 */
+	void removeText(int length) {
+		base += length;
+		// a run overlapping the removed region is kept, it will be cut when read
+		removeHead(indexAfter(0));
+	}
+
+	/**
+	 * Adapt the runs to the removal of the beginning of the document, keeping the
+	 * last run starting before the new beginning (it is then seen at offset 0)
+	 *
+	 * @param length the removed length
+	 */
+	void removeTextKeepingLast(int length) {
+		base += length;
+		removeHead(Math.max(indexAfter(0) - 1, 0));
+	}
+
+	private void empty() {
+		if (shared) {
+			allocate(INITIAL_CAPACITY);
+		}
+		start = 0;
+		end = 0;
+	}
+
+	private void allocate(int capacity) {
+		offsets = new int[capacity];
+		lengths = new char[capacity];
+		attributes = new StyleAttribute[capacity];
+		shared = false;
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.prettyconsole.utils.EscapeSequenceLexer;
+import org.eclipse.prettyconsole.utils.SgrParameters;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+import org.eclipse.ui.console.IOConsoleOutputStream;
+
+/**
+ * The styles of the text written to a console through
+ * {@link StrippingOutputStream}s. The escape sequences are removed by the
+ * writing threads, so the document only contains the text and the
+ * {@link DocumentPartitioner} only has to publish the positions computed here.
+ * <p>
+ * The positions are stored by stream offset (the store base is always 0),
+ * starting at the length of the document when the first stream was created.
+ * All the text of the document must then be written through the streams. The
+ * text removed from the beginning of the document is followed here, so the
+ * positions stay bounded and the partitioners connected later know the stream
+ * offset of the document.
+ */
+class StrippedStyles implements EscapeSequenceLexer.Listener, IDocumentListener {
+
+	// the styles of the documents written through stripping streams
+	private static final Map<IDocument, StrippedStyles> REGISTRY = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private StyleAttribute attributes = StyleAttribute.DEFAULT;
+	private final EscapeSequenceLexer lexer = new EscapeSequenceLexer();
+	private final SgrParameters parameters = new SgrParameters();
+	private final PositionStore positions = new PositionStore();
+	// the stream offset of the next written char
+	private int written;
+	// the stream offset of the beginning of the document (the removed length)
+	private int removed;
+
+	// the chars of the incomplete escape sequence ending the previous chunk (they
+	// are text if the sequence turns out to be invalid)
+	private String pending = "";
+	// the chunk being scanned and its text
+	private CharSequence chunk;
+	private final StringBuilder text = new StringBuilder();
+
+	// held while writing to the console, so the streams of a console write in the
+	// order of the positions (never held by the UI thread)
+	private final Object writeLock = new Object();
+
+	private StrippedStyles(int length) {
+		written = length;
+	}
+
+	/**
+	 * @param document the document of a console
+	 * @return the styles of the document, created if needed
+	 */
+	static StrippedStyles register(IDocument document) {
+		final StrippedStyles existing = REGISTRY.get(document);
+		if (existing != null) {
+			return existing;
+		}
+		// the length is not read while holding the registry lock: the partitioners
+		// look up the registry while holding the document lock
+		final StrippedStyles created = new StrippedStyles(document.getLength());
+		final StrippedStyles raced = REGISTRY.putIfAbsent(document, created);
+		if (raced != null) {
+			return raced;
+		}
+		document.addDocumentListener(created);
+		return created;
+	}
+
+	/**
+	 * @param document the document of a console
+	 * @return the styles of the document or null if nothing is written to it
+	 *         through stripping streams
+	 */
+	static StrippedStyles get(IDocument document) {
+		return REGISTRY.get(document);
+	}
+
+	/**
+	 * Write the text of a chunk without its escape sequences and record its styles
+	 *
+	 * @param out   the stream of the console
+	 * @param chunk the chunk (may end with an incomplete escape sequence)
+	 * @throws IOException if the text cannot be written
+	 */
+	void write(IOConsoleOutputStream out, CharSequence chunk) throws IOException {
+		synchronized (writeLock) {
+			final String stripped = strip(chunk);
+			if (!stripped.isEmpty()) {
+				out.write(stripped);
+			}
+		}
+	}
+
+	/**
+	 * Write the chars of the incomplete escape sequence ending the last chunk as
+	 * text, when no more text follows them
+	 *
+	 * @param out the stream of the console
+	 * @throws IOException if the text cannot be written
+	 */
+	void writePending(IOConsoleOutputStream out) throws IOException {
+		synchronized (writeLock) {
+			final String rest = stripPending();
+			if (!rest.isEmpty()) {
+				out.write(rest);
+			}
+		}
+	}
+
+	/**
+	 * @param chunk the chunk (may end with an incomplete escape sequence)
+	 * @return the text of the chunk without its escape sequences, its styles are
+	 *         recorded
+	 */
+	synchronized String strip(CharSequence chunk) {
+		this.chunk = chunk;
+		text.setLength(0);
+		lexer.scan(chunk, 0, this);
+		keepPending();
+		this.chunk = null;
+		written += text.length();
+		return text.toString();
+	}
+
+	/**
+	 * @return the chars of the incomplete escape sequence ending the last chunk,
+	 *         recorded as text
+	 */
+	synchronized String stripPending() {
+		if (pending.isEmpty()) {
+			return "";
+		}
+		chunk = "";
+		text.setLength(0);
+		text(-pending.length(), pending.length());
+		lexer.reset();
+		pending = "";
+		chunk = null;
+		written += text.length();
+		return text.toString();
+	}
+
+	// keep the chars of the incomplete escape sequence at the end of the chunk
+	private void keepPending() {
+		final int length = lexer.getPendingLength();
+		if (length == 0) {
+			pending = "";
+		} else if (length <= chunk.length()) {
+			pending = chunk.subSequence(chunk.length() - length, chunk.length()).toString();
+		} else {
+			pending = pending.substring(pending.length() - (length - chunk.length())) + chunk;
+		}
+	}
+
+	/**
+	 * @return an immutable view of the positions
+	 */
+	synchronized PositionStore snapshot() {
+		return positions.snapshot();
+	}
+
+	/**
+	 * @return the stream offset of the next written char, the positions are final
+	 *         before it
+	 */
+	synchronized int getEnd() {
+		return written;
+	}
+
+	/**
+	 * @return the stream offset of the beginning of the document
+	 */
+	synchronized int getBase() {
+		return removed;
+	}
+
+	/**
+	 * @return the approximate memory used by the positions (in bytes)
+	 */
+	synchronized long getMemory() {
+		return positions.getMemory();
+	}
+
+	/**
+	 * @return the approximate memory used by the positions of all the documents
+	 *         written through stripping streams (in bytes)
+	 */
+	static long getTotalMemory() {
+		long memory = 0;
+		synchronized (REGISTRY) {
+			for (final StrippedStyles styles : REGISTRY.values()) {
+				memory += styles.getMemory();
+			}
+		}
+		return memory;
+	}
+
+	// counted before the partitioners are notified of the change, so they read the
+	// new base
+	@Override
+	public synchronized void documentAboutToBeChanged(DocumentEvent event) {
+		if (event.getOffset() == 0 && event.getLength() > 0) {
+			removed += event.getLength();
+			// forget the positions removed from the beginning of the document
+			positions.removeHead(positions.indexAfter(removed));
+		}
+	}
+
+	@Override
+	public void documentChanged(DocumentEvent event) {
+		// ignore
+	}
+
+	@Override
+	public void text(int offset, int length) {
+		final int start = text.length();
+		// the beginning of the run may be the pending chars of the previous chunk
+		if (offset < 0) {
+			final int from = pending.length() + offset;
+			text.append(pending, from, Math.min(pending.length(), from + length));
+		}
+		if (offset + length > 0) {
+			text.append(chunk, Math.max(offset, 0), offset + length);
+		}
+		if (attributes != StyleAttribute.DEFAULT) {
+			positions.add(written + start, length, attributes);
+		}
+	}
+
+	@Override
+	public void escapeSequence(int offset, int length, CharSequence sequence) {
+		attributes = attributes.apply(sequence, parameters);
+	}
+}
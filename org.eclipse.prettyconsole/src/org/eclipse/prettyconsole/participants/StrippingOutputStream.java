@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.eclipse.ui.console.IOConsole;
+import org.eclipse.ui.console.IOConsoleOutputStream;
+
+/**
+ * An output stream of a console which removes the escape sequences before the
+ * text reaches the document (opt-in, for the consoles created by other
+ * plug-ins).
+ * <p>
+ * The escape sequences are parsed by the writing thread and the styles of the
+ * text are given to the viewers by the {@link DocumentPartitioner}, so the
+ * document is smaller, no escape sequence has to be hidden and copying the text
+ * does not have to remove them. All the text of the console must be written
+ * through such streams (no input, no other stream), otherwise the styles are
+ * shifted.
+ * <p>
+ * Usage, from a plug-in creating its own console:
+ *
+ * <pre>
+ * final MessageConsole console = new MessageConsole("My console", null);
+ * try (StrippingOutputStream out = StrippingOutputStream.newOutputStream(console)) {
+ * 	out.write("\033[32mgreen\033[0m text\n");
+ * }
+ * </pre>
+ */
+public class StrippingOutputStream extends OutputStream {
+
+	private final IOConsoleOutputStream out;
+	private final StrippedStyles styles;
+	private final CharsetDecoder decoder;
+	// the bytes of an incomplete char at the end of the last write
+	private ByteBuffer remaining = ByteBuffer.allocate(0);
+
+	private StrippingOutputStream(IOConsoleOutputStream out, StrippedStyles styles, Charset charset) {
+		this.out = out;
+		this.styles = styles;
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Create a new stream writing to a console
+	 *
+	 * @param console the console
+	 * @return the stream
+	 */
+	public static StrippingOutputStream newOutputStream(IOConsole console) {
+		return new StrippingOutputStream(console.newOutputStream(), StrippedStyles.register(console.getDocument()),
+				console.getCharset());
+	}
+
+	/**
+	 * @return the stream of the console (to set its color or font style)
+	 */
+	public IOConsoleOutputStream getConsoleStream() {
+		return out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		ByteBuffer input = ByteBuffer.wrap(b, off, len);
+		if (remaining.hasRemaining()) {
+			input = ByteBuffer.allocate(remaining.remaining() + len).put(remaining).put(input);
+			input.flip();
+		}
+		final CharBuffer chars = CharBuffer.allocate((int) (input.remaining() * decoder.maxCharsPerByte()) + 1);
+		decoder.decode(input, chars, false);
+		// copied since the array of the caller may be reused
+		remaining = ByteBuffer.allocate(input.remaining()).put(input);
+		remaining.flip();
+		chars.flip();
+		write(chars);
+	}
+
+	/**
+	 * Write some text
+	 *
+	 * @param text the text
+	 * @throws IOException if the text cannot be written
+	 */
+	public synchronized void write(CharSequence text) throws IOException {
+		if (text.length() > 0) {
+			styles.write(out, text);
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		final CharBuffer chars = CharBuffer.allocate((int) (remaining.remaining() * decoder.maxCharsPerByte()) + 2);
+		decoder.decode(remaining, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		write(chars);
+		// an incomplete escape sequence at the end of the output is text
+		styles.writePending(out);
+		out.close();
+	}
+}
@@ -12,19 +12,42 @@ package org.eclipse.prettyconsole.participants;
 
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentExtension3;
+import org.eclipse.jface.text.ITextInputListener;
+import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.prettyconsole.preferences.PreferenceUtils;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.LineStyleEvent;
 import org.eclipse.swt.custom.LineStyleListener;
 import org.eclipse.swt.custom.StyledText;
 
+/**
+ * Give the styles of the escape sequences to the console viewers when a line is
+ * painted.
+ * <p>
+ * The styles cannot be pushed to the widget once with
+ * {@link StyledText#replaceStyleRanges(int, int, org.eclipse.swt.custom.StyleRange[])}:
+ * StyledText ignores it as soon as a {@link LineStyleListener} is installed, and
+ * the console viewers always install one for their own styles (hyperlinks,
+ * stream colors). The styles of a painted line are cached by the
+ * {@link DocumentPartitioner} instead, so painting it again does not depend on
+ * the number of escape sequences.
+ * <p>
+ * The partitioner of a viewer is looked up once and kept in the data of the
+ * widget until the document of the viewer changes. It is only installed once
+ * the document contains an escape sequence.
+ */
 public class StyleListener implements LineStyleListener {
 
 	private static StyleListener instance = new StyleListener();
 
+	// the key of the partitioner in the data of the widgets
+	private static final String PARTITIONER_KEY = DocumentPartitioner.class.getName();
+
 	public static void install(StyledText viewer) {
 
 		viewer.removeLineStyleListener(StyleListener.instance);
 		viewer.addLineStyleListener(StyleListener.instance);
+		getBinding(viewer);
 	}
 
 	private StyleListener() {
@@ -40,22 +63,22 @@ public class StyleListener implements LineStyleListener {
 
 		final StyledText text = (StyledText) event.widget;
 
-		final IDocument document = PageParticipant.getDocument(text);
-
-		if (!(document instanceof IDocumentExtension3)) {
+		final Binding binding = getBinding(text);
+		if (binding == null) {
 			return;
 		}
-
-		final IDocumentExtension3 docExt = (IDocumentExtension3) document;
-
-		DocumentPartitioner partitioner = (DocumentPartitioner) docExt
-				.getDocumentPartitioner(DocumentPartitioner.PARTITION_NAME);
-
-		// Install the AnsiDocumentPartitioner if not already installed
+		DocumentPartitioner partitioner = binding.partitioner;
 		if (partitioner == null) {
-			partitioner = new DocumentPartitioner();
-			partitioner.connect(document);
-			docExt.setDocumentPartitioner(DocumentPartitioner.PARTITION_NAME, partitioner);
+			partitioner = binding.getPartitioner();
+			if (partitioner == null) {
+				return;
+			}
+		}
+
+		// a painted page is shown even if it was brought to the top without being
+		// activated or shown again (the console view does so on new output)
+		if (partitioner.isSuspended()) {
+			partitioner.resume(text.getOffsetAtLine(text.getTopIndex()));
 		}
 
 		// update event styles
@@ -63,4 +86,96 @@ public class StyleListener implements LineStyleListener {
 
 	}
 
+	// get the binding of a widget, created the first time
+	private static Binding getBinding(StyledText viewer) {
+		final Object data = viewer.getData(PARTITIONER_KEY);
+		if (data instanceof Binding) {
+			return (Binding) data;
+		}
+		final ITextViewer textViewer = PageParticipant.getTextViewer(viewer);
+		if (textViewer == null) {
+			return null;
+		}
+		final Binding binding = new Binding(textViewer);
+		textViewer.addTextInputListener(binding);
+		viewer.setData(PARTITIONER_KEY, binding);
+		viewer.addListener(SWT.Dispose, event -> binding.dispose());
+		return binding;
+	}
+
+	// the partitioner of the document of a viewer, forgotten when the document
+	// changes
+	private static final class Binding implements ITextInputListener {
+		private final ITextViewer textViewer;
+		private DocumentPartitioner partitioner;
+		// looks for the first escape sequence before installing the partitioner
+		private EscapeDetector detector;
+
+		private Binding(ITextViewer textViewer) {
+			this.textViewer = textViewer;
+		}
+
+		// get the partitioner of the document, installed once the document contains
+		// an escape sequence
+		private DocumentPartitioner getPartitioner() {
+			if (detector != null && !detector.isFound()) {
+				return null;
+			}
+
+			final IDocument document = textViewer.getDocument();
+			if (!(document instanceof IDocumentExtension3)) {
+				return null;
+			}
+
+			final IDocumentExtension3 docExt = (IDocumentExtension3) document;
+
+			DocumentPartitioner result = (DocumentPartitioner) docExt
+					.getDocumentPartitioner(DocumentPartitioner.PARTITION_NAME);
+
+			// Install the AnsiDocumentPartitioner if not already installed (the
+			// documents written through stripping streams have no escape sequence)
+			if (result == null) {
+				if (StrippedStyles.get(document) == null) {
+					if (detector == null) {
+						detector = new EscapeDetector(document);
+					}
+					if (!detector.isFound()) {
+						return null;
+					}
+				}
+				result = new DocumentPartitioner();
+				result.connect(document);
+				docExt.setDocumentPartitioner(DocumentPartitioner.PARTITION_NAME, result);
+			}
+
+			disposeDetector();
+			partitioner = result;
+			return result;
+		}
+
+		// stop listening to the viewer and its document
+		private void dispose() {
+			disposeDetector();
+			textViewer.removeTextInputListener(this);
+		}
+
+		private void disposeDetector() {
+			if (detector != null) {
+				detector.dispose();
+				detector = null;
+			}
+		}
+
+		@Override
+		public void inputDocumentAboutToBeChanged(IDocument oldInput, IDocument newInput) {
+			partitioner = null;
+			disposeDetector();
+		}
+
+		@Override
+		public void inputDocumentChanged(IDocument oldInput, IDocument newInput) {
+			partitioner = null;
+		}
+	}
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.Objects;
+
+import org.eclipse.prettyconsole.preferences.PreferenceUtils;
+import org.eclipse.prettyconsole.utils.ColorPalette;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.graphics.Color;
+
+/**
+ * Cache of the fully resolved styles of the attributes, so painting a line only
+ * copies a template and sets its start and length.
+ * <p>
+ * A template depends on the attribute, on the default colors of the viewer
+ * (which change with the theme) and on the preferences (palette, escape codes
+ * visibility). Templates are immutable and replaced when the preferences
+ * change or when the colors they use have been disposed.
+ */
+class StyleTemplates {
+
+	// number of cached templates (must be a power of 2)
+	private static final int SIZE = 1 << 8;
+
+	private final Template[] templates = new Template[SIZE];
+
+	/**
+	 * @param attribute       the attribute or {@link PositionStore#ESCAPE_CODE}
+	 * @param foregroundColor the default foreground color
+	 * @param backgroundColor the default background color
+	 * @return the cached style or null if not cached (the style must not be
+	 *         modified)
+	 */
+	StyleRange get(StyleAttribute attribute, Color foregroundColor, Color backgroundColor) {
+		final Template template = templates[index(attribute, foregroundColor, backgroundColor)];
+		if (template != null && template.attribute == attribute && template.version == getVersion()
+				&& Objects.equals(template.foregroundColor, foregroundColor)
+				&& Objects.equals(template.backgroundColor, backgroundColor)) {
+			return template.style;
+		}
+		return null;
+	}
+
+	/**
+	 * Cache a style
+	 *
+	 * @param attribute       the attribute or {@link PositionStore#ESCAPE_CODE}
+	 * @param foregroundColor the default foreground color
+	 * @param backgroundColor the default background color
+	 * @param style           the style (no longer modified)
+	 */
+	void put(StyleAttribute attribute, Color foregroundColor, Color backgroundColor, StyleRange style) {
+		templates[index(attribute, foregroundColor, backgroundColor)] = new Template(attribute,
+				getVersion(), foregroundColor, backgroundColor, style);
+	}
+
+	/**
+	 * @return the version of the preferences and of the cached colors, the styles
+	 *         computed with another version must be computed again
+	 */
+	static long getVersion() {
+		return (long) PreferenceUtils.getVersion() << 32 | ColorPalette.getVersion() & 0xffffffffL;
+	}
+
+	private static int index(StyleAttribute attribute, Color foregroundColor, Color backgroundColor) {
+		final int hash = 31 * (31 * Objects.hashCode(attribute) + Objects.hashCode(foregroundColor)) + Objects.hashCode(backgroundColor);
+		return (hash ^ hash >>> 16) & SIZE - 1;
+	}
+
+	// a style and the values it was computed from
+	private static final class Template {
+		private final StyleAttribute attribute;
+		private final long version;
+		private final Color foregroundColor;
+		private final Color backgroundColor;
+		private final StyleRange style;
+
+		private Template(StyleAttribute attribute, long version, Color foregroundColor, Color backgroundColor,
+				StyleRange style) {
+			this.attribute = attribute;
+			this.version = version;
+			this.foregroundColor = foregroundColor;
+			this.backgroundColor = backgroundColor;
+			this.style = style;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.prettyconsole.preferences.PreferenceUtils;
+import org.eclipse.prettyconsole.utils.StyleAttribute;
+
+/**
+ * The memory budget shared by the styles of all the consoles: the positions,
+ * the cached lines and the attributes. When it is exceeded, the least recently
+ * painted consoles are styled lazily: they only keep checkpoints and style the
+ * painted lines on demand. They are styled eagerly again, in the order of
+ * their eviction, once there is room for them. Only used from the UI thread.
+ */
+class StylingBudget {
+
+	// delay between two checks of the memory
+	private static final long CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private static final Set<DocumentPartitioner> PARTITIONERS = Collections.newSetFromMap(new WeakHashMap<>());
+	private static long lastCheck = System.nanoTime();
+
+	private StylingBudget() {
+		// Utility class, should not be instantiated
+	}
+
+	static void register(DocumentPartitioner partitioner) {
+		PARTITIONERS.add(partitioner);
+	}
+
+	static void unregister(DocumentPartitioner partitioner) {
+		PARTITIONERS.remove(partitioner);
+	}
+
+	/**
+	 * Evict the positions of the least recently painted consoles if the budget is
+	 * exceeded (at most once per second)
+	 */
+	static void check() {
+		final long now = System.nanoTime();
+		final long budget = PreferenceUtils.getStylingBudget() * (1L << 20);
+		if (budget <= 0 || now - lastCheck < CHECK_INTERVAL) {
+			return;
+		}
+		lastCheck = now;
+
+		final List<DocumentPartitioner> partitioners = new ArrayList<>(PARTITIONERS);
+		long memory = StrippedStyles.getTotalMemory() + StyleAttribute.getMemory();
+		for (final DocumentPartitioner partitioner : partitioners) {
+			memory += partitioner.getMemory();
+		}
+		if (memory <= budget) {
+			restore(partitioners, budget - memory);
+			return;
+		}
+
+		partitioners.sort(Comparator.comparingLong(DocumentPartitioner::getLastPainted));
+		for (final DocumentPartitioner partitioner : partitioners) {
+			if (memory <= budget) {
+				break;
+			}
+			final long evicted = partitioner.getMemory();
+			if (partitioner.evict()) {
+				memory -= evicted;
+			}
+		}
+	}
+
+	// style eagerly again the first evicted console if there is room for it (with
+	// a margin, so it is not evicted again as soon as its output grows)
+	private static void restore(List<DocumentPartitioner> partitioners, long available) {
+		DocumentPartitioner first = null;
+		for (final DocumentPartitioner partitioner : partitioners) {
+			final long order = partitioner.getEvictionOrder();
+			if (order != 0 && (first == null || order < first.getEvictionOrder())) {
+				first = partitioner;
+			}
+		}
+		if (first != null && 2 * first.getRestoredMemory() <= available) {
+			first.restore();
+		}
+	}
+}
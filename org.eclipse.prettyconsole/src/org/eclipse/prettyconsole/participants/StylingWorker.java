@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.participants;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The thread parsing the escape sequences when the background parsing is
+ * enabled. A single thread is shared by all the consoles so the changes of a
+ * document are always processed in order.
+ */
+public class StylingWorker {
+
+	private static ExecutorService executor;
+
+	private StylingWorker() {
+		// Utility class, should not be instantiated
+	}
+
+	static synchronized void execute(Runnable task) {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "Pretty Console styling");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		executor.execute(task);
+	}
+
+	/**
+	 * Stop the worker thread (pending tasks are dropped)
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+}
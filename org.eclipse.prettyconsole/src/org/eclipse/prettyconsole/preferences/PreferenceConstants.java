@@ -15,6 +15,12 @@ public class PreferenceConstants {
 	public static final String PREF_SHOW_ESCAPES = "booleanShowEscapes";
 	public static final String PREF_COLOR_PALETTE = "choiceColorPalette";
 	public static final String PREF_PUT_RTF_IN_CLIPBOARD = "booleanPutRtfInClipboard";
+	public static final String PREF_BACKGROUND_PARSING = "booleanBackgroundParsing";
+	public static final String PREF_LAZY_STYLING = "booleanLazyStyling";
+	public static final String PREF_FLOOD_CHARS = "intFloodChars";
+	public static final String PREF_FLOOD_ESCAPES = "intFloodEscapes";
+	public static final String PREF_STYLING_BUDGET = "intStylingBudget";
+	public static final String PREF_HIBERNATE_DELAY = "intHibernateDelay";
 	protected static final String[] PREF_COLOR = { "color_black", "color_red", "color_green", "color_brown_yellow",
 			"color_blue", "color_magenta", "color_cyan", "color_gray", "color_dark_gray", "color_bright_red",
 			"color_bright_green", "color_yellow", "color_bright_blue", "color_bright_magenta", "color_bright_cyan",
@@ -10,11 +10,17 @@
  */
 package org.eclipse.prettyconsole.preferences;
 
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_BACKGROUND_PARSING;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_COLOR;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_COLOR_PALETTE;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_FLOOD_CHARS;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_FLOOD_ESCAPES;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_HIBERNATE_DELAY;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_LAZY_STYLING;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_PRETTY_CONSOLE_ENABLED;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_PUT_RTF_IN_CLIPBOARD;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_SHOW_ESCAPES;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_STYLING_BUDGET;
 
 import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -32,8 +38,14 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		store.setDefault(PREF_SHOW_ESCAPES, false);
 		store.setDefault(PREF_COLOR_PALETTE, ColorPalette.getBestPaletteForOS());
 		store.setDefault(PREF_PUT_RTF_IN_CLIPBOARD, true);
+		store.setDefault(PREF_BACKGROUND_PARSING, false);
+		store.setDefault(PREF_LAZY_STYLING, false);
+		store.setDefault(PREF_FLOOD_CHARS, 1 << 20);
+		store.setDefault(PREF_FLOOD_ESCAPES, 1 << 16);
+		store.setDefault(PREF_STYLING_BUDGET, 128);
+		store.setDefault(PREF_HIBERNATE_DELAY, 300);
 
-		final RGB[] palette = ColorPalette.getCurrentPalette();
+		final RGB[] palette = ColorPalette.getPalette(ColorPalette.getBestPaletteForOS());
 		for (int i = 0; i < PREF_COLOR.length; ++i) {
 			PreferenceConverter.setDefault(store, PREF_COLOR[i], palette[i]);
 		}
@@ -10,11 +10,17 @@
  */
 package org.eclipse.prettyconsole.preferences;
 
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_BACKGROUND_PARSING;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_COLOR;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_COLOR_PALETTE;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_FLOOD_CHARS;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_FLOOD_ESCAPES;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_HIBERNATE_DELAY;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_LAZY_STYLING;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_PRETTY_CONSOLE_ENABLED;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_PUT_RTF_IN_CLIPBOARD;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_SHOW_ESCAPES;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_STYLING_BUDGET;
 
 import java.net.URL;
 import java.util.ArrayList;
@@ -31,6 +37,7 @@ import org.eclipse.jface.preference.ColorFieldEditor;
 import org.eclipse.jface.preference.FieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.resource.JFaceResources;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.prettyconsole.PrettyConsoleActivator;
@@ -453,6 +460,37 @@ public class PreferencePage extends FieldEditorPreferencePage implements IWorkbe
 		addField(new BooleanFieldEditor(PREF_PUT_RTF_IN_CLIPBOARD,
 				"Put &RTF in Clipboard. You will be able to paste styled text in some applications.", parent));
 
+		addField(new BooleanFieldEditor(PREF_BACKGROUND_PARSING,
+				"Parse the escape sequences in a back&ground thread (styles may appear with a small delay)", parent));
+
+		addField(new BooleanFieldEditor(PREF_LAZY_STYLING,
+				"Style only the text around the &visible lines (saves memory for very large outputs)", parent));
+
+		final IntegerFieldEditor floodChars = new IntegerFieldEditor(PREF_FLOOD_CHARS,
+				"Parse in background above this many &chars per second (0 to disable)", parent);
+		floodChars.setValidRange(0, Integer.MAX_VALUE);
+		addField(floodChars);
+
+		final IntegerFieldEditor floodEscapes = new IntegerFieldEditor(PREF_FLOOD_ESCAPES,
+				"Parse in background above this many &escape sequences per second (0 to disable)", parent);
+		floodEscapes.setValidRange(0, Integer.MAX_VALUE);
+		addField(floodEscapes);
+
+		final IntegerFieldEditor stylingBudget = new IntegerFieldEditor(PREF_STYLING_BUDGET,
+				"&Memory for the styles of all the consoles in MB (0 for no limit)", parent);
+		stylingBudget.setValidRange(0, Integer.MAX_VALUE);
+		addField(stylingBudget);
+
+		// the consoles sharing the memory
+		final Label consoles = new Label(parent, SWT.NONE);
+		consoles.setText("Consoles being styled: " + PrettyConsoleActivator.getDefault().getViewerCount());
+		new Label(parent, SWT.NONE);
+
+		final IntegerFieldEditor hibernateDelay = new IntegerFieldEditor(PREF_HIBERNATE_DELAY,
+				"Release the styles of a &hidden console after this many seconds (0 to keep them)", parent);
+		hibernateDelay.setValidRange(0, Integer.MAX_VALUE);
+		addField(hibernateDelay);
+
 		final Label palette = new Label(parent, SWT.NONE);
 		palette.setText("Palette");
 		palette.setFont(JFaceResources.getFontRegistry().getBold(JFaceResources.DEFAULT_FONT));
@@ -10,18 +10,23 @@
  */
 package org.eclipse.prettyconsole.preferences;
 
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_BACKGROUND_PARSING;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_COLOR;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_COLOR_PALETTE;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_FLOOD_CHARS;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_FLOOD_ESCAPES;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_HIBERNATE_DELAY;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_LAZY_STYLING;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_PRETTY_CONSOLE_ENABLED;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_PUT_RTF_IN_CLIPBOARD;
 import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_SHOW_ESCAPES;
+import static org.eclipse.prettyconsole.preferences.PreferenceConstants.PREF_STYLING_BUDGET;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.PreferenceConverter;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.prettyconsole.PrettyConsoleActivator;
 import org.eclipse.prettyconsole.utils.ColorPalette;
-import org.eclipse.swt.graphics.RGB;
 
 public class PreferenceUtils {
 
@@ -32,8 +37,21 @@ public class PreferenceUtils {
 	private static boolean showEscapeCodes = PREF_STORE.getBoolean(PREF_SHOW_ESCAPES);
 	private static boolean isPrettyConsoleEnabled = PREF_STORE.getBoolean(PREF_PRETTY_CONSOLE_ENABLED);
 	private static boolean clipboardPutRtf = PREF_STORE.getBoolean(PREF_PUT_RTF_IN_CLIPBOARD);
+	private static boolean backgroundParsing = PREF_STORE.getBoolean(PREF_BACKGROUND_PARSING);
+	private static boolean lazyStyling = PREF_STORE.getBoolean(PREF_LAZY_STYLING);
+	private static int floodChars = PREF_STORE.getInt(PREF_FLOOD_CHARS);
+	private static int floodEscapes = PREF_STORE.getInt(PREF_FLOOD_ESCAPES);
+	private static int stylingBudget = PREF_STORE.getInt(PREF_STYLING_BUDGET);
+	private static int hibernateDelay = PREF_STORE.getInt(PREF_HIBERNATE_DELAY);
+	// incremented on each change, the styles computed with an older version are
+	// obsolete
+	private static volatile int version;
 
 	static {
+		// the colors of the palette may have been customized
+		for (int i = 0; i < PREF_COLOR.length; ++i) {
+			ColorPalette.setColor(i, PreferenceConverter.getColor(PREF_STORE, PREF_COLOR[i]));
+		}
 		PREF_STORE.addPropertyChangeListener(PreferenceUtils::refresh);
 	}
 
@@ -63,11 +81,63 @@ public class PreferenceUtils {
 		return showEscapeCodes;
 	}
 
+	public static boolean isBackgroundParsing() {
+		return backgroundParsing;
+	}
+
+	public static boolean isLazyStyling() {
+		return lazyStyling;
+	}
+
+	/**
+	 * @return the chars per second above which a console is flooded (0 to never
+	 *         detect a flood)
+	 */
+	public static int getFloodChars() {
+		return floodChars;
+	}
+
+	/**
+	 * @return the escape sequences per second above which a console is flooded (0
+	 *         to never detect a flood)
+	 */
+	public static int getFloodEscapes() {
+		return floodEscapes;
+	}
+
+	/**
+	 * @return the memory budget of the positions of all the consoles in MB (0 for
+	 *         no limit)
+	 */
+	public static int getStylingBudget() {
+		return stylingBudget;
+	}
+
+	/**
+	 * @return the seconds after which the positions of a hidden console are
+	 *         released (0 to keep them)
+	 */
+	public static int getHibernateDelay() {
+		return hibernateDelay;
+	}
+
+	/**
+	 * @return the version of the preferences
+	 */
+	public static int getVersion() {
+		return version;
+	}
+
 	public static void refresh(PropertyChangeEvent evt) {
 
+		// true if the change affects the styles of the viewers
+		boolean redraw = true;
+
 		switch (evt.getProperty()) {
 		case PREF_COLOR_PALETTE:
+			// the colors of the palette are changed separately
 			getPreferredPalette = (String) evt.getNewValue();
+			redraw = false;
 			break;
 		case PREF_SHOW_ESCAPES:
 			showEscapeCodes = (boolean) evt.getNewValue();
@@ -77,18 +147,42 @@ public class PreferenceUtils {
 			break;
 		case PREF_PUT_RTF_IN_CLIPBOARD:
 			clipboardPutRtf = (boolean) evt.getNewValue();
+			redraw = false;
+			break;
+		case PREF_BACKGROUND_PARSING:
+			// used when the document changes
+			backgroundParsing = (boolean) evt.getNewValue();
+			redraw = false;
+			break;
+		case PREF_LAZY_STYLING:
+			// used when the document changes
+			lazyStyling = (boolean) evt.getNewValue();
+			redraw = false;
+			break;
+		case PREF_FLOOD_CHARS:
+			floodChars = PREF_STORE.getInt(PREF_FLOOD_CHARS);
+			redraw = false;
+			break;
+		case PREF_FLOOD_ESCAPES:
+			floodEscapes = PREF_STORE.getInt(PREF_FLOOD_ESCAPES);
+			redraw = false;
+			break;
+		case PREF_STYLING_BUDGET:
+			// checked when the documents change
+			stylingBudget = PREF_STORE.getInt(PREF_STYLING_BUDGET);
+			redraw = false;
+			break;
+		case PREF_HIBERNATE_DELAY:
+			// used when the consoles are hidden
+			hibernateDelay = PREF_STORE.getInt(PREF_HIBERNATE_DELAY);
+			redraw = false;
 			break;
 		default:
 
 			for (int i = 0; i < PREF_COLOR.length; ++i) {
 				if (PREF_COLOR[i].equals(evt.getProperty())) {
-					// update the current palette (do not replace)
-
-					final RGB[] palette = ColorPalette.getCurrentPalette();
-					final RGB rgb = PreferenceConverter.getColor(PREF_STORE, evt.getProperty());
-					palette[i].blue = rgb.blue;
-					palette[i].green = rgb.green;
-					palette[i].red = rgb.red;
+					// the styles are computed again with the new color, no need to scan
+					ColorPalette.setColor(i, PreferenceConverter.getColor(PREF_STORE, evt.getProperty()));
 					break;
 				}
 			}
@@ -96,6 +190,9 @@ public class PreferenceUtils {
 			break;
 		}
 
-		PrettyConsoleActivator.getDefault().redrawViewers();
+		if (redraw) {
+			version++;
+			PrettyConsoleActivator.getDefault().scheduleRedraw();
+		}
 	}
 }
@@ -10,12 +10,18 @@
  */
 package org.eclipse.prettyconsole.utils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.prettyconsole.PrettyConsoleActivator;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.widgets.Display;
 
 public class ColorPalette {
 	public static final String PALETTE_VGA = "paletteVGA";
@@ -33,6 +39,11 @@ public class ColorPalette {
 	private static final int PALETTE_SIZE = 256;
 	private static final int TRUE_RGB_FLAG = 0x10000000; // Representing true RGB colors as 0x10RRGGBB
 
+	/**
+	 * The value of a missing color (default color)
+	 */
+	public static final int NO_COLOR = -1;
+
 	private ColorPalette() {
 		// Utility class, should not be instantiated
 	}
@@ -225,10 +236,22 @@ public class ColorPalette {
 		KNOWN_PALETTES.put(PALETTE_RXVT, paletteRxvt);
 	}
 	private static final String PALETTE_NAME = getBestPaletteForOS();
-	private static RGB[] palette = KNOWN_PALETTES.get(PALETTE_NAME).clone();
+	// never modified, replaced when a color changes
+	private static volatile RGB[] palette = KNOWN_PALETTES.get(PALETTE_NAME);
 
-	public static RGB[] getCurrentPalette() {
-		return palette;
+	/**
+	 * Replace a color of the current palette. The attributes only refer to the
+	 * palette indexes, so they are painted with the new color once the styles
+	 * are computed again.
+	 *
+	 * @param index the index of the color in the 16 colors palette
+	 * @param rgb   the new color
+	 */
+	public static synchronized void setColor(int index, RGB rgb) {
+		final RGB[] colors = palette.clone();
+		colors[index] = new RGB(rgb.red, rgb.green, rgb.blue);
+		palette = colors;
+		table = createTable();
 	}
 
 	public static RGB[] getPalette(Object name) {
@@ -252,44 +275,223 @@ public class ColorPalette {
 		return result < PALETTE_SIZE ? result : PALETTE_SIZE - 1;
 	}
 
-	private static final HashMap<RGB, Color> CACHE = new HashMap<>();
+	// the true RGB colors are evicted above this count (unless they were used
+	// since the last eviction)
+	private static final int MAX_COLORS = 1024;
+
+	// the packed RGB values (0xRRGGBB) of the 256 colors palette
+	private static volatile int[] table = createTable();
+
+	// the colors of the palette indexes and the packed RGB values they were
+	// created with, replaced when the palette changes (UI thread only)
+	private static final Color[] paletteColors = new Color[PALETTE_SIZE];
+	private static final int[] paletteRgbs = new int[PALETTE_SIZE];
+	// the true RGB colors (UI thread only)
+	private static final ColorCache CACHE = new ColorCache();
+	// the cache size above which the colors are evicted
+	private static int limit = MAX_COLORS;
+	// incremented when colors are evicted, the styles using an older version must
+	// be computed again
+	private static volatile int version;
 
-	public static synchronized Color getColor(RGB rgb) {
-		return CACHE.computeIfAbsent(rgb, color -> new Color(null, color));
+	private static int[] createTable() {
+		final RGB[] palette = ColorPalette.palette;
+		final int[] result = new int[PALETTE_SIZE];
+		for (int index = 0; index < palette.length; index++) { // basic, 16 color palette
+			result[index] = pack(palette[index].red, palette[index].green, palette[index].blue);
+		}
+		for (int index = 16; index < 232; index++) { // 6x6x6 color matrix
+			int color = index - 16;
+			final int blue = color % 6;
+			color = color / 6;
+			final int green = color % 6;
+			final int red = color / 6;
+			result[index] = pack(safe256(red, 6), safe256(green, 6), safe256(blue, 6));
+		}
+		for (int index = 232; index < PALETTE_SIZE; index++) { // grayscale
+			final int gray = safe256(index - 232, 24);
+			result[index] = pack(gray, gray, gray);
+		}
+		return result;
 	}
 
-	public static RGB getColor(Integer index) {
-		if (null == index) {
+	private static int pack(int red, int green, int blue) {
+		return red << 16 | green << 8 | blue;
+	}
+
+	/**
+	 * Get the SWT color of a color, must be called from the UI thread. The colors
+	 * of the 256 colors palette are kept, the true RGB colors may be disposed when
+	 * too many are used: the styles must be computed again when the
+	 * {@link #getVersion() version} changes.
+	 *
+	 * @param color a palette index or a true RGB color (see
+	 *              {@link #hackRgb(int, int, int)})
+	 * @return the SWT color or null if the color is not valid
+	 * @throws org.eclipse.swt.SWTException if not called from the UI thread
+	 */
+	public static Color getColor(int color) {
+		// the caches are confined to the UI thread, like the colors they hold
+		if (Display.getCurrent() == null) {
+			SWT.error(SWT.ERROR_THREAD_INVALID_ACCESS);
+		}
+		if (isValidIndex(color)) {
+			return getPaletteColor(color);
+		}
+		if (color < TRUE_RGB_FLAG) {
 			return null;
 		}
+		final int rgb = color & 0xffffff;
+		final Color cached = CACHE.get(rgb, version);
+		if (cached != null) {
+			return cached;
+		}
+		final Color created = createColor(rgb);
+		CACHE.put(rgb, created, version);
+		if (CACHE.size() > limit) {
+			evict();
+		}
+		return created;
+	}
+
+	private static Color getPaletteColor(int index) {
+		final int rgb = table[index];
+		final Color cached = paletteColors[index];
+		if (cached != null && paletteRgbs[index] == rgb) {
+			return cached;
+		}
+		final Color created = createColor(rgb);
+		paletteColors[index] = created;
+		paletteRgbs[index] = rgb;
+		if (cached != null) {
+			// the palette has changed
+			final List<Color> replaced = new ArrayList<>();
+			replaced.add(cached);
+			dispose(replaced);
+		}
+		return created;
+	}
+
+	private static Color createColor(int rgb) {
+		return new Color(null, rgb >> 16 & 0xff, rgb >> 8 & 0xff, rgb & 0xff);
+	}
+
+	/**
+	 * @return the version of the cached colors
+	 */
+	public static int getVersion() {
+		return version;
+	}
+
+	// evict the true RGB colors not used since the last eviction (the colors of
+	// the current paint are kept)
+	private static void evict() {
+		final List<Color> evicted = new ArrayList<>();
+		CACHE.evict(version, evicted);
+		// more colors may be in use than the maximum, evict again only after as many
+		// new colors
+		limit = Math.max(MAX_COLORS, 2 * CACHE.size());
+		if (!evicted.isEmpty()) {
+			dispose(evicted);
+		}
+	}
+
+	// dispose colors once the viewers have dropped the styles using them
+	private static void dispose(List<Color> colors) {
+		version++;
+		final Display display = Display.getCurrent();
+		display.asyncExec(() -> {
+			final PrettyConsoleActivator activator = PrettyConsoleActivator.getDefault();
+			if (activator != null) {
+				activator.restyleViewers();
+			}
+			colors.forEach(Color::dispose);
+		});
+	}
 
-		if (index >= TRUE_RGB_FLAG) {
-			final int red = index >> 16 & 0xff;
-			final int green = index >> 8 & 0xff;
-			final int blue = index & 0xff;
-			return new RGB(red, green, blue);
+	// open addressing map of the true RGB colors by packed RGB value, with the
+	// version of their last use. Not thread safe: only used from the UI thread
+	// (checked by getColor), which is the only thread painting the styles and
+	// disposing the colors, so it needs no lock
+	private static final class ColorCache {
+		private static final int EMPTY = -1;
+		private static final int INITIAL_CAPACITY = 256;
+
+		private int[] keys;
+		private Color[] colors;
+		private int[] versions;
+		private int size;
+
+		private ColorCache() {
+			allocate(INITIAL_CAPACITY);
 		}
 
-		if (index >= 0 && index < palette.length) { // basic, 16 color palette
-			return palette[index];
+		private void allocate(int capacity) {
+			keys = new int[capacity];
+			Arrays.fill(keys, EMPTY);
+			colors = new Color[capacity];
+			versions = new int[capacity];
+			size = 0;
 		}
 
-		if (index >= 16 && index < 232) { // 6x6x6 color matrix
-			int color = index - 16;
-			final int blue = color % 6;
-			color = color / 6;
-			final int green = color % 6;
-			final int red = color / 6;
+		private int size() {
+			return size;
+		}
 
-			return new RGB(safe256(red, 6), safe256(green, 6), safe256(blue, 6));
+		// get a color and record its use
+		private Color get(int rgb, int version) {
+			for (int slot = slot(rgb);; slot = slot + 1 & keys.length - 1) {
+				if (keys[slot] == rgb) {
+					versions[slot] = version;
+					return colors[slot];
+				}
+				if (keys[slot] == EMPTY) {
+					return null;
+				}
+			}
 		}
 
-		if (index >= 232 && index < PALETTE_SIZE) { // grayscale
-			final int gray = safe256(index - 232, 24);
-			return new RGB(gray, gray, gray);
+		private void put(int rgb, Color color, int version) {
+			if (2 * (size + 1) > keys.length) {
+				rebuild(keys.length * 2, version, null);
+			}
+			int slot = slot(rgb);
+			while (keys[slot] != EMPTY) {
+				slot = slot + 1 & keys.length - 1;
+			}
+			keys[slot] = rgb;
+			colors[slot] = color;
+			versions[slot] = version;
+			size++;
 		}
 
-		return null;
+		// remove the colors used before a version
+		private void evict(int version, List<Color> evicted) {
+			rebuild(keys.length, version, evicted);
+		}
+
+		// copy the entries to new arrays, the entries used before a version are
+		// removed if requested
+		private void rebuild(int capacity, int version, List<Color> evicted) {
+			final int[] oldKeys = keys;
+			final Color[] oldColors = colors;
+			final int[] oldVersions = versions;
+			allocate(capacity);
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldKeys[slot] == EMPTY) {
+					continue;
+				}
+				if (evicted != null && oldVersions[slot] != version) {
+					evicted.add(oldColors[slot]);
+				} else {
+					put(oldKeys[slot], oldColors[slot], oldVersions[slot]);
+				}
+			}
+		}
+
+		private int slot(int rgb) {
+			return rgb * 0x9E3779B9 >>> Integer.numberOfLeadingZeros(keys.length - 1);
+		}
 	}
 
 	public static String getBestPaletteForOS() {
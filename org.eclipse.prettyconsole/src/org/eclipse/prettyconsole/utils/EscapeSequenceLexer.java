@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.utils;
+
+/**
+ * Resumable scanner for ANSI escape sequences.
+ * <p>
+ * It recognizes the same sequences as
+ * {@link org.eclipse.prettyconsole.PrettyConsoleUtils#ESCAPE_SEQUENCE_REGEX_TXT}
+ * but works on a stream of chunks: a sequence split between two chunks is kept
+ * as a partial state and completed when the next chunk is scanned, so chunks
+ * never have to be concatenated.
+ */
+public class EscapeSequenceLexer {
+
+	/**
+	 * Receives the text runs and the escape sequences found in a chunk
+	 */
+	public interface Listener {
+
+		/**
+		 * Called for a run of text between two escape sequences
+		 *
+		 * @param offset the offset of the run
+		 * @param length the length of the run
+		 */
+		void text(int offset, int length);
+
+		/**
+		 * Called for a complete escape sequence
+		 *
+		 * @param offset   the offset of the sequence
+		 * @param length   the length of the sequence
+		 * @param sequence the characters of the sequence, only valid during the call
+		 */
+		void escapeSequence(int offset, int length, CharSequence sequence);
+	}
+
+	// an unterminated sequence longer than this is considered as plain text
+	public static final int MAX_SEQUENCE_LENGTH = 256;
+
+	private static final char ESC = '\u001b';
+	private static final char CSI = '[';
+
+	// outside of any escape sequence
+	private static final int STATE_TEXT = 0;
+	// after ESC
+	private static final int STATE_ESCAPE = 1;
+	// after ESC[
+	private static final int STATE_PARAMETERS = 2;
+
+	private int state = STATE_TEXT;
+
+	// the characters of the pending escape sequence
+	private final StringBuilder sequence = new StringBuilder();
+
+	/**
+	 * Forget any pending escape sequence
+	 */
+	public void reset() {
+		state = STATE_TEXT;
+		sequence.setLength(0);
+	}
+
+	/**
+	 * @return the length of the incomplete escape sequence at the end of the last
+	 *         scanned chunk (0 if none)
+	 */
+	public int getPendingLength() {
+		return sequence.length();
+	}
+
+	/**
+	 * Scan a chunk of text. If the previous chunk ended with an incomplete escape
+	 * sequence, the chunk is assumed to directly follow it.
+	 *
+	 * @param text     the chunk to scan
+	 * @param offset   the offset of the chunk
+	 * @param listener the listener notified of the text runs and escape sequences
+	 */
+	public void scan(CharSequence text, int offset, Listener listener) {
+
+		final int length = text.length();
+
+		// both are relative to the chunk start and negative when the chunk resumes an
+		// incomplete escape sequence
+		int escapeStart = -sequence.length();
+		int textStart = escapeStart;
+
+		for (int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+
+			switch (state) {
+			case STATE_TEXT:
+				if (c == ESC) {
+					escapeStart = i;
+					sequence.append(c);
+					state = STATE_ESCAPE;
+				}
+				break;
+
+			case STATE_ESCAPE:
+				if (c == CSI) {
+					sequence.append(c);
+					state = STATE_PARAMETERS;
+				} else {
+					// not an escape sequence, scan again the current char as text
+					reset();
+					i--;
+				}
+				break;
+
+			default:
+				if (isParameter(c) && sequence.length() < MAX_SEQUENCE_LENGTH) {
+					sequence.append(c);
+				} else if (isCommand(c)) {
+					sequence.append(c);
+					if (escapeStart > textStart) {
+						listener.text(offset + textStart, escapeStart - textStart);
+					}
+					listener.escapeSequence(offset + escapeStart, i + 1 - escapeStart, sequence);
+					reset();
+					textStart = i + 1;
+				} else {
+					// not an escape sequence (or a runaway one), scan again the current char as
+					// text
+					reset();
+					i--;
+				}
+				break;
+			}
+		}
+
+		// flush the text up to the end of the chunk or up to the incomplete escape
+		// sequence which will be resumed by the next chunk
+		final int textEnd = state == STATE_TEXT ? length : escapeStart;
+		if (textEnd > textStart) {
+			listener.text(offset + textStart, textEnd - textStart);
+		}
+	}
+
+	private static boolean isParameter(char c) {
+		return c >= '0' && c <= '9' || c == ';';
+	}
+
+	// same set as [A-HJKSTfimnsu]
+	private static boolean isCommand(char c) {
+		switch (c) {
+		case 'A':
+		case 'B':
+		case 'C':
+		case 'D':
+		case 'E':
+		case 'F':
+		case 'G':
+		case 'H':
+		case 'J':
+		case 'K':
+		case 'S':
+		case 'T':
+		case 'f':
+		case 'i':
+		case 'm':
+		case 'n':
+		case 's':
+		case 'u':
+			return true;
+		default:
+			return false;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012-2022 Mihai Nita and others
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v 2.0 which is available at
+ * https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ */
+package org.eclipse.prettyconsole.utils;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of Select Graphic Rendition (SGR) parameters.
+ * <p>
+ * The parameters are decoded directly from the characters of the escape
+ * sequence, without any intermediate string or boxed value. An instance is not
+ * thread safe and is meant to be reused for all the sequences of a scanner.
+ */
+public class SgrParameters {
+
+	// value of a parameter too large to be meaningful
+	public static final int INVALID = -1;
+
+	private static final int MAX_VALUE = 0xFFFF;
+
+	private int[] values = new int[16];
+	private int size;
+
+	/**
+	 * Decode the parameters of a sequence.
+	 *
+	 * @param text  the text containing the parameters
+	 * @param start the offset of the first parameter char (just after ESC[)
+	 * @param end   the offset after the last parameter char (the command char)
+	 */
+	public void parse(CharSequence text, int start, int end) {
+		size = 0;
+
+		// no parameter at all is the same as 0
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			final char c = text.charAt(i);
+			if (c == ';') {
+				add(value);
+				value = 0; // an empty parameter is the same as 0
+			} else if (value != INVALID) {
+				value = value * 10 + c - '0';
+				if (value > MAX_VALUE) {
+					value = INVALID;
+				}
+			}
+		}
+		add(value);
+	}
+
+	/**
+	 * @return the number of parameters
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index the index of the parameter
+	 * @return the parameter at the given index or {@link #INVALID} if out of
+	 *         bounds
+	 */
+	public int get(int index) {
+		return index < size ? values[index] : INVALID;
+	}
+
+	private void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+}
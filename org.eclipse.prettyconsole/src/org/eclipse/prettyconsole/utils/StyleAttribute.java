@@ -41,15 +41,24 @@ import static org.eclipse.prettyconsole.utils.Commands.COMMAND_HICOLOR_FOREGROUN
 import static org.eclipse.prettyconsole.utils.Commands.COMMAND_HICOLOR_FOREGROUND_FIRST;
 import static org.eclipse.prettyconsole.utils.Commands.COMMAND_HICOLOR_FOREGROUND_LAST;
 
-import java.util.Iterator;
-import java.util.stream.Stream;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.eclipse.prettyconsole.PrettyConsoleUtils;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.RGB;
 
+/**
+ * Immutable set of text attributes resulting from SGR escape sequences.
+ * <p>
+ * Instances are interned: two attributes with the same values are the same
+ * instance, so they can be compared with <code>==</code> and shared by all the
+ * positions of all the consoles. The pool only holds weak references, an
+ * attribute no longer used by any position is garbage collected (and interned
+ * again if needed).
+ */
 public class StyleAttribute {
 
 	private static final int UNDERLINE_SIMPLE = 1 << 27;
@@ -60,13 +69,27 @@ public class StyleAttribute {
 	private static final int FONT_STYLE_MASK = SWT.ITALIC | SWT.BOLD | SWT.NORMAL;
 	private static final int UNDERLINE_STYLE_MASK = UNDERLINE_SIMPLE | UNDERLINE_DOUBLE;
 
-	public static final StyleAttribute DEFAULT = new StyleAttribute();
+	// number of cached transitions per attribute (must be a power of 2)
+	private static final int TRANSITION_CACHE_SIZE = 16;
+	// approximate memory of an attribute, its transitions and its pool entry (in
+	// bytes)
+	private static final int ATTRIBUTE_MEMORY = 256;
+
+	// all the distinct attributes in use
+	private static final Map<StyleAttribute, WeakReference<StyleAttribute>> POOL = new WeakHashMap<>();
 
-	// If you change any of these also update reset()
-	private RGB background;
-	private RGB foreground;
+	public static final StyleAttribute DEFAULT = intern(new StyleAttribute());
+
+	// If you change any of these also update reset(), equals() and hashCode()
+	// the colors are palette indexes or true RGB colors (see ColorPalette)
+	private int background;
+	private int foreground;
 	private int style;
 
+	// the attributes resulting from the last escape codes applied to this one (may
+	// be shared by several threads: a lost update is only a cache miss)
+	private Transition[] transitions;
+
 	private StyleAttribute() {
 		reset();
 	}
@@ -78,24 +101,57 @@ public class StyleAttribute {
 	}
 
 	private void reset() {
-		background = null;
-		foreground = null;
+		background = ColorPalette.NO_COLOR;
+		foreground = ColorPalette.NO_COLOR;
 		style = SWT.NORMAL;
 	}
 
-	private boolean isDefault() {
-		return foreground == null && style == SWT.NORMAL && background == null;
+	private static StyleAttribute intern(StyleAttribute attribute) {
+		synchronized (POOL) {
+			final WeakReference<StyleAttribute> reference = POOL.get(attribute);
+			final StyleAttribute existing = reference != null ? reference.get() : null;
+			if (existing != null) {
+				return existing;
+			}
+			POOL.put(attribute, new WeakReference<>(attribute));
+			return attribute;
+		}
+	}
 
+	/**
+	 * @return the approximate memory used by the attributes in use (in bytes)
+	 */
+	public static long getMemory() {
+		synchronized (POOL) {
+			return (long) POOL.size() * ATTRIBUTE_MEMORY;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof StyleAttribute)) {
+			return false;
+		}
+		final StyleAttribute other = (StyleAttribute) obj;
+		return style == other.style && foreground == other.foreground && background == other.background;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * style + foreground) + background;
 	}
 
 	@Override
 	public String toString() {
 		final StringBuilder result = new StringBuilder();
-		if (background != null) {
-			result.append("Bg" + background);
+		if (background != ColorPalette.NO_COLOR) {
+			result.append("Bg" + Integer.toHexString(background));
 		}
-		if (foreground != null) {
-			result.append("Fg" + foreground);
+		if (foreground != ColorPalette.NO_COLOR) {
+			result.append("Fg" + Integer.toHexString(foreground));
 		}
 
 		if ((style & UNDERLINE_SIMPLE) != 0) {
@@ -133,12 +189,12 @@ public class StyleAttribute {
 	public static void updateRangeStyle(StyleRange range, final StyleAttribute attribute) {
 
 		// update the foreground color
-		if (attribute.foreground != null) {
+		if (attribute.foreground != ColorPalette.NO_COLOR) {
 			range.foreground = ColorPalette.getColor(attribute.foreground);
 		}
 
 		// update the background color
-		if (attribute.background != null) {
+		if (attribute.background != ColorPalette.NO_COLOR) {
 			range.background = ColorPalette.getColor(attribute.background);
 		}
 
@@ -178,36 +234,52 @@ public class StyleAttribute {
 	/**
 	 * Apply an ansi escape code to the current attribute
 	 *
-	 * @param ansiCode the ansi code
+	 * @param ansiCode   the ansi code
+	 * @param parameters the buffer used to decode the parameters of the code
 	 * @return the resulting attributes
 	 */
-	public StyleAttribute apply(String ansiCode) {
-		final char code = ansiCode.charAt(ansiCode.length() - 1);
-		if (code == PrettyConsoleUtils.ESCAPE_SGR) {
-
-			final StyleAttribute newAttribute = new StyleAttribute(this);
+	public StyleAttribute apply(CharSequence ansiCode, SgrParameters parameters) {
+		final int end = ansiCode.length() - 1;
+		final char code = ansiCode.charAt(end);
+		if (code != PrettyConsoleUtils.ESCAPE_SGR) {
+			return this;
+		}
 
-			// Select Graphic Rendition (SGR) escape sequence
-			newAttribute.interpretCommand(ansiCode.substring(2, ansiCode.length() - 1));
-			if (newAttribute.isDefault()) {
-				return StyleAttribute.DEFAULT;
+		// look for the same code applied previously to this attribute
+		Transition[] cache = transitions;
+		if (cache == null) {
+			cache = new Transition[TRANSITION_CACHE_SIZE];
+			transitions = cache;
+		}
+		int hash = 0;
+		for (int i = 2; i < end; i++) {
+			hash = 31 * hash + ansiCode.charAt(i);
+		}
+		final int index = (hash ^ hash >>> 16) & TRANSITION_CACHE_SIZE - 1;
+		final Transition transition = cache[index];
+		if (transition != null && transition.ansiCode.contentEquals(ansiCode)) {
+			final StyleAttribute target = transition.get();
+			if (target != null) {
+				return target;
 			}
-
-			return newAttribute;
 		}
-		return this;
-	}
 
-	private void interpretCommand(String text) {
+		final StyleAttribute newAttribute = new StyleAttribute(this);
 
-		if (text.isEmpty()) {
-			reset();
-			return;
-		}
+		// Select Graphic Rendition (SGR) escape sequence
+		parameters.parse(ansiCode, 2, end);
+		newAttribute.interpretCommand(parameters);
 
-		final Iterator<Integer> iter = Stream.of(text.split(";")).map(Integer::parseInt).iterator();
-		while (iter.hasNext()) {
-			final int nCmd = iter.next();
+		final StyleAttribute result = intern(newAttribute);
+		cache[index] = new Transition(ansiCode.toString(), result);
+		return result;
+	}
+
+	private void interpretCommand(SgrParameters parameters) {
+
+		int index = 0;
+		while (index < parameters.size()) {
+			final int nCmd = parameters.get(index++);
 			switch (nCmd) {
 			case COMMAND_ATTR_RESET:
 				reset();
@@ -267,56 +339,151 @@ public class StyleAttribute {
 				break;
 
 			case COMMAND_COLOR_FOREGROUND_RESET:
-				foreground = null;
+				foreground = ColorPalette.NO_COLOR;
 				break;
 			case COMMAND_COLOR_BACKGROUND_RESET:
-				background = null;
+				background = ColorPalette.NO_COLOR;
 				break;
 
 			case COMMAND_HICOLOR_FOREGROUND:
 			case COMMAND_HICOLOR_BACKGROUND: // {esc}[48;5;{color}m
-				int color = -1;
-				final int nMustBe2or5 = iter.hasNext() ? iter.next() : -1;
+				int color = ColorPalette.NO_COLOR;
+				final int nMustBe2or5 = parameters.get(index++);
 				if (nMustBe2or5 == 5) { // 256 colors
-					color = iter.hasNext() ? iter.next() : -1;
+					color = parameters.get(index++);
 					if (!ColorPalette.isValidIndex(color)) {
-						color = -1;
+						color = ColorPalette.NO_COLOR;
 					}
 				} else if (nMustBe2or5 == 2) { // rgb colors
-					final int r = iter.hasNext() ? iter.next() : -1;
-					final int g = iter.hasNext() ? iter.next() : -1;
-					final int b = iter.hasNext() ? iter.next() : -1;
+					final int r = parameters.get(index++);
+					final int g = parameters.get(index++);
+					final int b = parameters.get(index++);
 					color = ColorPalette.hackRgb(r, g, b);
 				}
-				if (color != -1) {
+				if (color != ColorPalette.NO_COLOR) {
 					if (nCmd == COMMAND_HICOLOR_FOREGROUND) {
-						foreground = ColorPalette.getColor(color);
+						foreground = color;
 					} else {
-						background = ColorPalette.getColor(color);
+						background = color;
 					}
 				}
 				break;
 
-			case -1:
+			case SgrParameters.INVALID:
 				break; // do nothing
 
 			default:
 				if (nCmd >= COMMAND_COLOR_FOREGROUND_FIRST && nCmd <= COMMAND_COLOR_FOREGROUND_LAST) {
 					// text color
-					foreground = ColorPalette.getColor(nCmd - COMMAND_COLOR_FOREGROUND_FIRST);
+					foreground = nCmd - COMMAND_COLOR_FOREGROUND_FIRST;
 				} else if (nCmd >= COMMAND_COLOR_BACKGROUND_FIRST && nCmd <= COMMAND_COLOR_BACKGROUND_LAST) {
 					// background color
-					background = ColorPalette.getColor(nCmd - COMMAND_COLOR_BACKGROUND_FIRST);
+					background = nCmd - COMMAND_COLOR_BACKGROUND_FIRST;
 				} else if (nCmd >= COMMAND_HICOLOR_FOREGROUND_FIRST && nCmd <= COMMAND_HICOLOR_FOREGROUND_LAST) {
 					// text color
-					foreground = ColorPalette
-							.getColor(nCmd - COMMAND_HICOLOR_FOREGROUND_FIRST + COMMAND_COLOR_INTENSITY_DELTA);
+					foreground = nCmd - COMMAND_HICOLOR_FOREGROUND_FIRST + COMMAND_COLOR_INTENSITY_DELTA;
 				} else if (nCmd >= COMMAND_HICOLOR_BACKGROUND_FIRST && nCmd <= COMMAND_HICOLOR_BACKGROUND_LAST) {
 					// background color
-					background = ColorPalette
-							.getColor(nCmd - COMMAND_HICOLOR_BACKGROUND_FIRST + COMMAND_COLOR_INTENSITY_DELTA);
+					background = nCmd - COMMAND_HICOLOR_BACKGROUND_FIRST + COMMAND_COLOR_INTENSITY_DELTA;
 				}
 			}
 		}
 	}
+
+	/**
+	 * The effect of a sequence of escape codes on any attribute.
+	 * <p>
+	 * Each SGR command sets, clears or keeps each field independently, so the
+	 * effect is fully known by applying the codes to two probe attributes: one
+	 * with all the style bits cleared and one with all of them set, both with a
+	 * marker color. Deltas of consecutive texts can then be composed without
+	 * knowing the attributes at the beginning of the texts.
+	 */
+	public static final class Delta {
+		// not a valid color
+		private static final int MARKER = -2;
+
+		// the probes are never interned
+		private final StyleAttribute low = new StyleAttribute();
+		private final StyleAttribute high = new StyleAttribute();
+
+		/**
+		 * Create the identity delta
+		 */
+		public Delta() {
+			low.style = 0;
+			low.foreground = MARKER;
+			low.background = MARKER;
+			high.style = ~0;
+			high.foreground = MARKER;
+			high.background = MARKER;
+		}
+
+		/**
+		 * Add the effect of an escape code after the current effect
+		 *
+		 * @param ansiCode   the ansi code
+		 * @param parameters the buffer used to decode the parameters of the code
+		 */
+		public void apply(CharSequence ansiCode, SgrParameters parameters) {
+			final int end = ansiCode.length() - 1;
+			if (ansiCode.charAt(end) != PrettyConsoleUtils.ESCAPE_SGR) {
+				return;
+			}
+			parameters.parse(ansiCode, 2, end);
+			low.interpretCommand(parameters);
+			high.interpretCommand(parameters);
+		}
+
+		/**
+		 * Add the effect of another delta after the current effect
+		 *
+		 * @param next the delta to apply after this one
+		 */
+		public void apply(Delta next) {
+			next.update(low);
+			next.update(high);
+		}
+
+		/**
+		 * @param attribute the attribute before the escape codes
+		 * @return the attribute after the escape codes
+		 */
+		public StyleAttribute applyTo(StyleAttribute attribute) {
+			final StyleAttribute result = new StyleAttribute(attribute);
+			update(result);
+			return intern(result);
+		}
+
+		/**
+		 * @return true if the attribute after the escape codes does not depend on the
+		 *         attribute before them (all the fields are set)
+		 */
+		public boolean isAbsolute() {
+			return low.style == high.style && low.foreground != MARKER && low.background != MARKER;
+		}
+
+		// a bit set in the low probe is always set, a bit cleared in the high probe
+		// is always cleared, a marker means the color is kept
+		private void update(StyleAttribute attribute) {
+			attribute.style = attribute.style & high.style | low.style;
+			if (low.foreground != MARKER) {
+				attribute.foreground = low.foreground;
+			}
+			if (low.background != MARKER) {
+				attribute.background = low.background;
+			}
+		}
+	}
+
+	// an escape code and the attribute it leads to (weakly referenced, so the
+	// transitions do not keep the unused attributes alive)
+	private static final class Transition extends WeakReference<StyleAttribute> {
+		private final String ansiCode;
+
+		private Transition(String ansiCode, StyleAttribute target) {
+			super(target);
+			this.ansiCode = ansiCode;
+		}
+	}
 }